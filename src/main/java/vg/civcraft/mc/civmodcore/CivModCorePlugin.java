@@ -1,5 +1,7 @@
 package vg.civcraft.mc.civmodcore;
 
+import vg.civcraft.mc.civmodcore.dao.DatabaseStatsCommand;
+import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
 import vg.civcraft.mc.civmodcore.itemHandling.itemExpression.TestItemSolvingCommand;
 import vg.civcraft.mc.civmodcore.itemHandling.itemExpression.TestMatchingCommand;
 
@@ -21,6 +23,17 @@ public class CivModCorePlugin extends ACivMod {
 
 		getCommand("testitemsolving").setExecutor(new TestItemSolvingCommand());
 		getCommand("testitemmatching").setExecutor(new TestMatchingCommand());
+		getCommand("databasestats").setExecutor(new DatabaseStatsCommand());
+
+		// configured in seconds, scheduled in ticks
+		long statsInterval = getConfig().getLong("databaseStatsLogInterval", 600) * 20;
+		if (statsInterval > 0) {
+			getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+				for (ManagedDatasource datasource : ManagedDatasource.getActiveDatasources()) {
+					datasource.logStatistics();
+				}
+			}, statsInterval, statsInterval);
+		}
 	}
 
 	public static CivModCorePlugin getInstance() {
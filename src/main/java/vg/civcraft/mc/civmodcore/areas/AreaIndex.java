@@ -0,0 +1,236 @@
+package vg.civcraft.mc.civmodcore.areas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.locations.OTBox;
+import vg.civcraft.mc.civmodcore.locations.SparseOctree;
+
+/**
+ * Spatial index over many areas, which allows finding all areas containing a
+ * location without checking every single area. Areas are kept per world in a
+ * {@link SparseOctree} based on their bounding box, only areas whose bounding
+ * box contains a location are then checked exactly through
+ * {@link IArea#isInArea(Location)}.
+ *
+ * {@link EllipseArea} and {@link RectangleArea} are indexed by their bounds,
+ * areas without bounds in x and z like {@link GlobalYLimitedArea} and any other
+ * implementations of {@link IArea} are kept in a per world list and checked for
+ * every query.
+ */
+public class AreaIndex {
+
+	private final Map<UUID, SparseOctree> trees;
+
+	private final Map<UUID, List<IArea>> unboundedAreas;
+
+	private final Map<IArea, AreaBox> boxes;
+
+	private int nextId;
+
+	public AreaIndex() {
+		this.trees = new HashMap<>();
+		this.unboundedAreas = new HashMap<>();
+		this.boxes = new IdentityHashMap<>();
+	}
+
+	/**
+	 * Adds an area to the index. Adding the same area twice has no effect
+	 *
+	 * @param area Area to add
+	 */
+	public void add(IArea area) {
+		if (boxes.containsKey(area)) {
+			return;
+		}
+		UUID world = area.getWorld().getUID();
+		AreaBox box = createBox(area);
+		boxes.put(area, box);
+		if (box == null) {
+			unboundedAreas.computeIfAbsent(world, w -> new ArrayList<>()).add(area);
+			return;
+		}
+		trees.computeIfAbsent(world, w -> new SparseOctree()).add(box);
+	}
+
+	/**
+	 * Removes an area from the index
+	 *
+	 * @param area Area to remove
+	 */
+	public void remove(IArea area) {
+		if (!boxes.containsKey(area)) {
+			return;
+		}
+		UUID world = area.getWorld().getUID();
+		AreaBox box = boxes.remove(area);
+		if (box == null) {
+			List<IArea> areas = unboundedAreas.get(world);
+			areas.remove(area);
+			if (areas.isEmpty()) {
+				unboundedAreas.remove(world);
+			}
+			return;
+		}
+		SparseOctree tree = trees.get(world);
+		tree.remove(box);
+		if (tree.size() == 0) {
+			trees.remove(world);
+		}
+	}
+
+	public boolean contains(IArea area) {
+		return boxes.containsKey(area);
+	}
+
+	public int size() {
+		return boxes.size();
+	}
+
+	/**
+	 * Collects all areas in the index which contain the given location
+	 *
+	 * @param loc Location to check
+	 * @return All areas containing the location, empty list if there are none
+	 */
+	public List<IArea> getAreasAt(Location loc) {
+		List<IArea> result = new ArrayList<>();
+		World world = loc.getWorld();
+		if (world == null) {
+			return result;
+		}
+		UUID worldID = world.getUID();
+		SparseOctree tree = trees.get(worldID);
+		if (tree != null) {
+			tree.forEachAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), false, box -> {
+				IArea area = ((AreaBox) box).area;
+				if (area.isInArea(loc)) {
+					result.add(area);
+				}
+			});
+		}
+		List<IArea> unbounded = unboundedAreas.get(worldID);
+		if (unbounded != null) {
+			for (IArea area : unbounded) {
+				if (area.isInArea(loc)) {
+					result.add(area);
+				}
+			}
+		}
+		return result;
+	}
+
+	private AreaBox createBox(IArea area) {
+		double xSize;
+		double zSize;
+		if (area instanceof EllipseArea) {
+			xSize = ((EllipseArea) area).getXSize();
+			zSize = ((EllipseArea) area).getZSize();
+		} else if (area instanceof RectangleArea) {
+			xSize = ((RectangleArea) area).getXSize();
+			zSize = ((RectangleArea) area).getZSize();
+		} else {
+			return null;
+		}
+		AbstractYLimitedArea yLimited = (AbstractYLimitedArea) area;
+		Location center = area.getCenter();
+		return new AreaBox(area, nextId++, toBlock(center.getX() - xSize), toBlock(yLimited.getLowerYBound()),
+				toBlock(center.getZ() - zSize), toBlock(center.getX() + xSize), toBlock(yLimited.getUpperYBound()),
+				toBlock(center.getZ() + zSize));
+	}
+
+	// Any location inside [min, max] has its block coordinate inside
+	// [toBlock(min), toBlock(max)], so boxes built from these never miss a match
+	private static int toBlock(double coordinate) {
+		double floored = Math.floor(coordinate);
+		// Keep some distance to the int limits, so the tree can still do math on
+		// the bounds without overflowing
+		if (floored <= Integer.MIN_VALUE / 2) {
+			return Integer.MIN_VALUE / 2;
+		}
+		if (floored >= Integer.MAX_VALUE / 2) {
+			return Integer.MAX_VALUE / 2;
+		}
+		return (int) floored;
+	}
+
+	private static class AreaBox implements OTBox, Comparable<AreaBox> {
+
+		private final IArea area;
+		private final int id;
+		private final int xMin;
+		private final int yMin;
+		private final int zMin;
+		private final int xMax;
+		private final int yMax;
+		private final int zMax;
+
+		private AreaBox(IArea area, int id, int xMin, int yMin, int zMin, int xMax, int yMax, int zMax) {
+			this.area = area;
+			this.id = id;
+			this.xMin = xMin;
+			this.yMin = yMin;
+			this.zMin = zMin;
+			this.xMax = xMax;
+			this.yMax = yMax;
+			this.zMax = zMax;
+		}
+
+		@Override
+		public int otXMin() {
+			return xMin;
+		}
+
+		@Override
+		public int otXMid() {
+			return (int) (((long) xMin + xMax) / 2);
+		}
+
+		@Override
+		public int otXMax() {
+			return xMax;
+		}
+
+		@Override
+		public int otYMin() {
+			return yMin;
+		}
+
+		@Override
+		public int otYMid() {
+			return (int) (((long) yMin + yMax) / 2);
+		}
+
+		@Override
+		public int otYMax() {
+			return yMax;
+		}
+
+		@Override
+		public int otZMin() {
+			return zMin;
+		}
+
+		@Override
+		public int otZMid() {
+			return (int) (((long) zMin + zMax) / 2);
+		}
+
+		@Override
+		public int otZMax() {
+			return zMax;
+		}
+
+		@Override
+		public int compareTo(AreaBox other) {
+			return Integer.compare(id, other.id);
+		}
+
+	}
+
+}
@@ -0,0 +1,292 @@
+package vg.civcraft.mc.civmodcore.areas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.LongConsumer;
+import org.bukkit.World;
+
+/**
+ * Set of chunks within a single world, which stores the chunk coordinates as
+ * packed longs (see {@link PseudoChunk#toLong(int, int)}) in an open addressing
+ * hash table instead of holding an object per chunk.
+ */
+public class ChunkCoordinateSet {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	// Marks empty slots. The chunk actually packing to this value is tracked
+	// separately in containsFreeKey
+	private static final long FREE_KEY = Long.MIN_VALUE;
+
+	private final World world;
+
+	private long[] keys;
+
+	private boolean containsFreeKey;
+
+	private int size;
+
+	public ChunkCoordinateSet(World world) {
+		this(world, INITIAL_CAPACITY);
+	}
+
+	public ChunkCoordinateSet(World world, int expectedSize) {
+		this.world = world;
+		this.keys = new long[tableSizeFor(expectedSize)];
+		Arrays.fill(keys, FREE_KEY);
+	}
+
+	public ChunkCoordinateSet(ChunkCoordinateSet other) {
+		this.world = other.world;
+		this.keys = other.keys.clone();
+		this.containsFreeKey = other.containsFreeKey;
+		this.size = other.size;
+	}
+
+	/**
+	 * @return World all chunks in this set are in
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean add(int x, int z) {
+		return add(PseudoChunk.toLong(x, z));
+	}
+
+	/**
+	 * Adds a chunk to this set
+	 *
+	 * @param packed Packed chunk coordinates
+	 * @return True if the chunk was not in this set before
+	 */
+	public boolean add(long packed) {
+		if (packed == FREE_KEY) {
+			if (containsFreeKey) {
+				return false;
+			}
+			containsFreeKey = true;
+			++size;
+			return true;
+		}
+		int index = findSlot(keys, packed);
+		if (keys[index] == packed) {
+			return false;
+		}
+		keys[index] = packed;
+		++size;
+		if (size > keys.length * LOAD_FACTOR) {
+			rehash(keys.length * 2);
+		}
+		return true;
+	}
+
+	public boolean contains(int x, int z) {
+		return contains(PseudoChunk.toLong(x, z));
+	}
+
+	public boolean contains(long packed) {
+		if (packed == FREE_KEY) {
+			return containsFreeKey;
+		}
+		return keys[findSlot(keys, packed)] == packed;
+	}
+
+	public boolean remove(int x, int z) {
+		return remove(PseudoChunk.toLong(x, z));
+	}
+
+	/**
+	 * Removes a chunk from this set
+	 *
+	 * @param packed Packed chunk coordinates
+	 * @return True if the chunk was in this set
+	 */
+	public boolean remove(long packed) {
+		if (packed == FREE_KEY) {
+			if (!containsFreeKey) {
+				return false;
+			}
+			containsFreeKey = false;
+			--size;
+			return true;
+		}
+		int index = findSlot(keys, packed);
+		if (keys[index] != packed) {
+			return false;
+		}
+		// Shift following entries of the probe sequence back, so lookups don't
+		// stop at the gap we leave
+		int mask = keys.length - 1;
+		int gap = index;
+		int current = index;
+		while (true) {
+			current = (current + 1) & mask;
+			long key = keys[current];
+			if (key == FREE_KEY) {
+				break;
+			}
+			int ideal = hash(key) & mask;
+			if (((current - ideal) & mask) >= ((current - gap) & mask)) {
+				keys[gap] = key;
+				gap = current;
+			}
+		}
+		keys[gap] = FREE_KEY;
+		--size;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, FREE_KEY);
+		containsFreeKey = false;
+		size = 0;
+	}
+
+	/**
+	 * Passes the packed coordinates of every chunk in this set to the given
+	 * consumer
+	 *
+	 * @param consumer Consumer to pass packed chunk coordinates to
+	 */
+	public void forEach(LongConsumer consumer) {
+		if (containsFreeKey) {
+			consumer.accept(FREE_KEY);
+		}
+		for (long key : keys) {
+			if (key != FREE_KEY) {
+				consumer.accept(key);
+			}
+		}
+	}
+
+	/**
+	 * Adds all chunks of the given set to this one
+	 *
+	 * @param other Set to add, must be in the same world
+	 */
+	public void addAll(ChunkCoordinateSet other) {
+		checkWorld(other);
+		other.forEach(this::add);
+	}
+
+	/**
+	 * Removes all chunks from this set, which are not also in the given one
+	 *
+	 * @param other Set to intersect with, must be in the same world
+	 */
+	public void retainAll(ChunkCoordinateSet other) {
+		checkWorld(other);
+		ChunkCoordinateSet retained = new ChunkCoordinateSet(world, Math.min(size, other.size));
+		forEach(packed -> {
+			if (other.contains(packed)) {
+				retained.add(packed);
+			}
+		});
+		keys = retained.keys;
+		containsFreeKey = retained.containsFreeKey;
+		size = retained.size;
+	}
+
+	/**
+	 * Removes all chunks in the given set from this one
+	 *
+	 * @param other Set to subtract, must be in the same world
+	 */
+	public void removeAll(ChunkCoordinateSet other) {
+		checkWorld(other);
+		other.forEach(this::remove);
+	}
+
+	public static ChunkCoordinateSet union(ChunkCoordinateSet first, ChunkCoordinateSet second) {
+		ChunkCoordinateSet result = new ChunkCoordinateSet(first);
+		result.addAll(second);
+		return result;
+	}
+
+	public static ChunkCoordinateSet intersection(ChunkCoordinateSet first, ChunkCoordinateSet second) {
+		// Iterate over the smaller set and look up in the larger one
+		ChunkCoordinateSet smaller = first.size <= second.size ? first : second;
+		ChunkCoordinateSet result = new ChunkCoordinateSet(smaller);
+		result.retainAll(smaller == first ? second : first);
+		return result;
+	}
+
+	/**
+	 * @return Packed coordinates of all chunks in this set in no particular order
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		int[] index = new int[1];
+		forEach(packed -> result[index[0]++] = packed);
+		return result;
+	}
+
+	/**
+	 * @return Pseudo chunks for all chunks in this set
+	 */
+	public Collection<PseudoChunk> toPseudoChunks() {
+		Collection<PseudoChunk> chunks = new ArrayList<>(size);
+		forEach(packed -> chunks.add(new PseudoChunk(world, packed)));
+		return chunks;
+	}
+
+	private void checkWorld(ChunkCoordinateSet other) {
+		if (world != other.world && (world == null || other.world == null
+				|| !world.getUID().equals(other.world.getUID()))) {
+			throw new IllegalArgumentException("Can not combine chunk sets of different worlds");
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE_KEY);
+		for (long key : oldKeys) {
+			if (key != FREE_KEY) {
+				keys[findSlot(keys, key)] = key;
+			}
+		}
+	}
+
+	// Slot containing the key or the free slot it would be inserted into
+	private static int findSlot(long[] table, long key) {
+		int mask = table.length - 1;
+		int index = hash(key) & mask;
+		while (table[index] != FREE_KEY && table[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private static int hash(long key) {
+		// Final mixing step of MurmurHash3, as neighbouring chunks only differ in
+		// their lowest bits
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
@@ -2,6 +2,7 @@ package vg.civcraft.mc.civmodcore.areas;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.function.LongConsumer;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -24,19 +25,53 @@ public class EllipseArea extends AbstractYLimitedArea {
 	@Override
 	public Collection<Chunk> getChunks() {
 		Collection<Chunk> chunks = new HashSet<>();
-		for (double x = center.getX() - xSize; x <= center.getX() + xSize; x += 16) {
-			for (double z = center.getZ() - zSize; z <= center.getZ() + zSize; z += 16) {
-				Chunk c = new Location(center.getWorld(), x, center.getY(), z).getChunk();
-				// if one of the corners is in the area the chunk is inside
-				if (isInArea(new Location(c.getWorld(), c.getX() * 16, 0, (c.getZ() * 16) + 15))
-						|| isInArea(new Location(c.getWorld(), c.getX() * 16, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, (c.getZ() * 16) + 15))) {
-					chunks.add(c);
-				}
+		World world = center.getWorld();
+		forEachChunk(packed -> chunks
+				.add(world.getChunkAt(PseudoChunk.getXFromLong(packed), PseudoChunk.getZFromLong(packed))));
+		return chunks;
+	}
+
+	/**
+	 * Passes the coordinates of every chunk overlapping this ellipse, packed as
+	 * described in {@link PseudoChunk#toLong(int, int)}, to the given consumer.
+	 * Chunks are computed row by row from the ellipse equation, so nothing is
+	 * allocated and no chunk is loaded. Every chunk is passed exactly once.
+	 *
+	 * @param consumer Consumer to pass packed chunk coordinates to
+	 */
+	public void forEachChunk(LongConsumer consumer) {
+		if (xSize <= 0 || zSize <= 0) {
+			// a degenerate ellipse contains no location, see isInArea(Location)
+			return;
+		}
+		double centerX = center.getX();
+		double centerZ = center.getZ();
+		int minChunkZ = (int) Math.floor((centerZ - zSize) / 16);
+		int maxChunkZ = (int) Math.floor((centerZ + zSize) / 16);
+		for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+			// the widest part of the ellipse within this row is at the z closest to
+			// the center
+			double rowMin = chunkZ * 16.0;
+			double rowMax = rowMin + 16;
+			double zDist;
+			if (centerZ < rowMin) {
+				zDist = rowMin - centerZ;
+			} else if (centerZ > rowMax) {
+				zDist = centerZ - rowMax;
+			} else {
+				zDist = 0;
+			}
+			if (zDist > zSize) {
+				continue;
+			}
+			double ratio = zDist / zSize;
+			double halfWidth = xSize * Math.sqrt(1 - (ratio * ratio));
+			int minChunkX = (int) Math.floor((centerX - halfWidth) / 16);
+			int maxChunkX = (int) Math.floor((centerX + halfWidth) / 16);
+			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				consumer.accept(PseudoChunk.toLong(chunkX, chunkZ));
 			}
 		}
-		return chunks;
 	}
 
 	@Override
@@ -73,18 +108,15 @@ public class EllipseArea extends AbstractYLimitedArea {
 	@Override
 	public Collection<PseudoChunk> getPseudoChunks() {
 		Collection<PseudoChunk> chunks = new HashSet<>();
-		for (int x = (int) (center.getX() - xSize); x <= center.getX() + xSize; x += 16) {
-			for (int z = (int) (center.getZ() - zSize); z <= center.getZ() + zSize; z += 16) {
-				PseudoChunk c = new PseudoChunk(center.getWorld(), x / 16, z / 16);
-				// if one of the corners is in the area the chunk is inside
-				if (isInArea(new Location(c.getWorld(), c.getX() * 16, 0, (c.getZ() * 16) + 15))
-						|| isInArea(new Location(c.getWorld(), c.getX() * 16, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, (c.getZ() * 16) + 15))) {
-					chunks.add(c);
-				}
-			}
-		}
+		World world = center.getWorld();
+		forEachChunk(packed -> chunks.add(new PseudoChunk(world, packed)));
+		return chunks;
+	}
+
+	@Override
+	public ChunkCoordinateSet getChunkCoordinates() {
+		ChunkCoordinateSet chunks = new ChunkCoordinateSet(center.getWorld());
+		forEachChunk(chunks::add);
 		return chunks;
 	}
 
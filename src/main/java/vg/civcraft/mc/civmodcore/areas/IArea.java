@@ -33,6 +33,25 @@ public interface IArea {
 	 */
 	Collection<PseudoChunk> getPseudoChunks();
 
+	/**
+	 * Collects the coordinates of all chunks which are (partially) inside the defined area into a compact set of
+	 * packed chunk coordinates. This is the same as {@link #getPseudoChunks()}, but without holding an object per
+	 * chunk
+	 *
+	 * @return All chunks in the area or null in case of an infinite size
+	 */
+	default ChunkCoordinateSet getChunkCoordinates() {
+		Collection<PseudoChunk> chunks = getPseudoChunks();
+		if (chunks == null) {
+			return null;
+		}
+		ChunkCoordinateSet result = new ChunkCoordinateSet(getWorld(), chunks.size());
+		for (PseudoChunk chunk : chunks) {
+			result.add(chunk.getX(), chunk.getZ());
+		}
+		return result;
+	}
+
 	/**
 	 * @return Center of this area
 	 */
@@ -17,6 +17,41 @@ public class PseudoChunk {
 		this.z = z;
 	}
 
+	/**
+	 * Creates a pseudo chunk from chunk coordinates packed by
+	 * {@link #toLong(int, int)}
+	 *
+	 * @param w      World the chunk is in
+	 * @param packed Packed chunk coordinates
+	 */
+	public PseudoChunk(World w, long packed) {
+		this(w, getXFromLong(packed), getZFromLong(packed));
+	}
+
+	/**
+	 * Packs chunk coordinates into a single long, x in the upper and z in the
+	 * lower 32 bits
+	 *
+	 * @param x Chunk x coordinate
+	 * @param z Chunk z coordinate
+	 * @return Packed coordinates
+	 */
+	public static long toLong(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	public static int getXFromLong(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	public static int getZFromLong(long packed) {
+		return (int) packed;
+	}
+
+	public long toLong() {
+		return toLong(x, z);
+	}
+
 	public int getX() {
 		return x;
 	}
@@ -41,4 +76,27 @@ public class PseudoChunk {
 		return world.getChunkAt(x, z);
 	}
 
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PseudoChunk)) {
+			return false;
+		}
+		PseudoChunk other = (PseudoChunk) o;
+		if (x != other.x || z != other.z) {
+			return false;
+		}
+		if (world == null || other.world == null) {
+			return world == other.world;
+		}
+		return world.getUID().equals(other.world.getUID());
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * x + z;
+	}
+
 }
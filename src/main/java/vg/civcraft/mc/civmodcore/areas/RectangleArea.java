@@ -2,6 +2,7 @@ package vg.civcraft.mc.civmodcore.areas;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.function.LongConsumer;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -24,14 +25,30 @@ public class RectangleArea extends AbstractYLimitedArea {
 	@Override
 	public Collection<Chunk> getChunks() {
 		Collection<Chunk> chunks = new HashSet<>();
-		for (double x = center.getX() - xSize; x <= center.getX() + xSize; x += 16) {
-			for (double z = center.getZ() - zSize; z <= center.getZ() + zSize; z += 16) {
-				chunks.add(new Location(center.getWorld(), x, center.getY(), z).getChunk());
+		World world = center.getWorld();
+		forEachChunk(packed -> chunks
+				.add(world.getChunkAt(PseudoChunk.getXFromLong(packed), PseudoChunk.getZFromLong(packed))));
+		return chunks;
+	}
+
+	/**
+	 * Passes the coordinates of every chunk overlapping this rectangle, packed as
+	 * described in {@link PseudoChunk#toLong(int, int)}, to the given consumer.
+	 * Nothing is allocated and no chunk is loaded. Every chunk is passed exactly
+	 * once.
+	 *
+	 * @param consumer Consumer to pass packed chunk coordinates to
+	 */
+	public void forEachChunk(LongConsumer consumer) {
+		int minChunkX = (int) Math.floor((center.getX() - xSize) / 16);
+		int maxChunkX = (int) Math.floor((center.getX() + xSize) / 16);
+		int minChunkZ = (int) Math.floor((center.getZ() - zSize) / 16);
+		int maxChunkZ = (int) Math.floor((center.getZ() + zSize) / 16);
+		for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				consumer.accept(PseudoChunk.toLong(chunkX, chunkZ));
 			}
-			// last one might have been skipped
-			chunks.add(new Location(center.getWorld(), x, center.getY(), center.getZ() + zSize).getChunk());
 		}
-		return chunks;
 	}
 
 	@Override
@@ -70,13 +87,15 @@ public class RectangleArea extends AbstractYLimitedArea {
 	@Override
 	public Collection<PseudoChunk> getPseudoChunks() {
 		Collection<PseudoChunk> chunks = new HashSet<>();
-		for (int x = (int) (center.getX() - xSize); x <= center.getX() + xSize; x += 16) {
-			for (int z = (int) (center.getZ() - zSize); z <= center.getZ() + zSize; z += 16) {
-				chunks.add(new PseudoChunk(center.getWorld(), x / 16, z / 16));
-			}
-			// last one might have been skipped
-			chunks.add(new PseudoChunk(center.getWorld(), x / 16, ((int) (center.getZ() + zSize)) / 16));
-		}
+		World world = center.getWorld();
+		forEachChunk(packed -> chunks.add(new PseudoChunk(world, packed)));
+		return chunks;
+	}
+
+	@Override
+	public ChunkCoordinateSet getChunkCoordinates() {
+		ChunkCoordinateSet chunks = new ChunkCoordinateSet(center.getWorld());
+		forEachChunk(chunks::add);
 		return chunks;
 	}
 
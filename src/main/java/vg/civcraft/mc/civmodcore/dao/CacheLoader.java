@@ -0,0 +1,22 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Loads a single value of a {@link DatabaseCache} from the database.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+
+	/**
+	 * @param connection Pooled connection, closed after loading
+	 * @param key        Key to load the value for
+	 * @return Loaded value or null if there is none
+	 */
+	V load(Connection connection, K key) throws SQLException;
+
+}
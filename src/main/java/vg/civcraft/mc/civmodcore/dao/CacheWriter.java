@@ -0,0 +1,19 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Writes a changed value of a {@link DatabaseCache} back to the database. All
+ * values of one flush are written with the same connection in a single
+ * transaction.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+@FunctionalInterface
+public interface CacheWriter<K, V> {
+
+	void write(Connection connection, K key, V value) throws SQLException;
+
+}
@@ -2,9 +2,21 @@ package vg.civcraft.mc.civmodcore.dao;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,10 +28,59 @@ import java.util.logging.Logger;
  */
 public class ConnectionPool {
 
+	/**
+	 * Slow query logging is disabled by default, as timing queries requires wrapping every connection and statement
+	 * handed out, see {@link #setSlowQueryThreshold(long)}
+	 */
+	public static final long DEFAULT_SLOW_QUERY_THRESHOLD = 0l;
+
+	public static final int DEFAULT_SHARED_POOL_SIZE = 20;
+
+	/**
+	 * Driver properties for MySQL Connector/J which enable client side prepared statement caching, server side prepared
+	 * statements and rewriting batches into multi row statements, among others. Note that with batch rewriting the
+	 * update counts of batches may be reported as {@link Statement#SUCCESS_NO_INFO}.
+	 */
+	public static final Map<String, String> MYSQL_PERFORMANCE_PROPERTIES;
+
+	static {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("cachePrepStmts", "true");
+		properties.put("prepStmtCacheSize", "250");
+		properties.put("prepStmtCacheSqlLimit", "2048");
+		properties.put("useServerPrepStmts", "true");
+		properties.put("useLocalSessionState", "true");
+		properties.put("rewriteBatchedStatements", "true");
+		properties.put("cacheResultSetMetadata", "true");
+		properties.put("cacheServerConfiguration", "true");
+		properties.put("elideSetAutoCommits", "true");
+		properties.put("maintainTimeStats", "false");
+		MYSQL_PERFORMANCE_PROPERTIES = Collections.unmodifiableMap(properties);
+	}
+
+	private static final Map<String, SharedPool> sharedPools = new HashMap<>();
+
 	private HikariDataSource datasource;
 
 	private Logger logger;
 
+	private DatabaseBackend backend = DatabaseBackend.MYSQL;
+
+	private final LatencyHistogram acquisitionLatency = new LatencyHistogram();
+
+	private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+	private final AtomicLong slowQueries = new AtomicLong();
+
+	private volatile long slowQueryThreshold = DEFAULT_SLOW_QUERY_THRESHOLD;
+
+	// Only set for quota limited views onto a shared pool, see getShared()
+	private String sharedKey;
+
+	private Semaphore quota;
+
+	private int quotaSize;
+
 	/**
 	 * Creates the Database connection pool backed by HikariCP.
 	 * 
@@ -46,10 +107,45 @@ public class ConnectionPool {
 	 */
 	public ConnectionPool(Logger log, String user, String pass, String host, int port, String database, int poolSize,
 			long connectionTimeout, long idleTimeout, long maxLifetime) {
+		this(log, user, pass, host, port, database, poolSize, connectionTimeout, idleTimeout, maxLifetime,
+				Collections.emptyMap());
+	}
+
+	/**
+	 * Creates the Database connection pool backed by HikariCP, passing additional properties to the JDBC driver. Use
+	 * {@link #MYSQL_PERFORMANCE_PROPERTIES} for a set of properties enabling prepared statement caching and batch
+	 * rewriting.
+	 * 
+	 * See {@link #ConnectionPool(Logger, String, String, String, int, String, int, long, long, long)} for the other
+	 * parameters.
+	 * 
+	 * @param dataSourceProperties
+	 *            Properties to pass to the JDBC driver, for example "cachePrepStmts" -> "true"
+	 */
+	public ConnectionPool(Logger log, String user, String pass, String host, int port, String database, int poolSize,
+			long connectionTimeout, long idleTimeout, long maxLifetime, Map<String, ?> dataSourceProperties) {
+		this(log, DatabaseBackend.MYSQL, user, pass, host, port, database, poolSize, connectionTimeout, idleTimeout,
+				maxLifetime, dataSourceProperties);
+	}
+
+	/**
+	 * Creates the Database connection pool backed by HikariCP for the given database backend. Host and port are only
+	 * required for backends which connect to a database server.
+	 * 
+	 * See {@link #ConnectionPool(Logger, String, String, String, int, String, int, long, long, long, Map)} for the
+	 * other parameters.
+	 * 
+	 * @param backend
+	 *            The database engine to connect to
+	 */
+	public ConnectionPool(Logger log, DatabaseBackend backend, String user, String pass, String host, int port,
+			String database, int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime,
+			Map<String, ?> dataSourceProperties) {
 		this.logger = log;
-		if (user != null && host != null && port > 0 && database != null) {
+		this.backend = backend;
+		if (user != null && (!backend.isRemote() || (host != null && port > 0)) && database != null) {
 			HikariConfig config = new HikariConfig();
-			config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database);
+			config.setJdbcUrl(backend.getJdbcUrl(host, port, database));
 			config.setConnectionTimeout(connectionTimeout); // 1000l);
 			config.setIdleTimeout(idleTimeout); // 600000l);
 			config.setMaxLifetime(maxLifetime); // 7200000l);
@@ -58,6 +154,9 @@ public class ConnectionPool {
 			if (pass != null) {
 				config.setPassword(pass);
 			}
+			for (Map.Entry<String, ?> property : dataSourceProperties.entrySet()) {
+				config.addDataSourceProperty(property.getKey(), property.getValue());
+			}
 			this.datasource = new HikariDataSource(config);
 
 			try (Connection connection = getConnection(); Statement statement = connection.createStatement();) {
@@ -72,15 +171,300 @@ public class ConnectionPool {
 		}
 	}
 
+	private ConnectionPool(Logger log, DatabaseBackend backend, String sharedKey, HikariDataSource datasource,
+			int quota) {
+		this.logger = log;
+		this.backend = backend;
+		this.sharedKey = sharedKey;
+		this.datasource = datasource;
+		this.quotaSize = quota;
+		this.quota = new Semaphore(quota, true);
+	}
+
+	/**
+	 * Gets a connection pool shared with all other callers connecting to the same database as the same user, with the
+	 * same password and driver properties. Instead of every plugin holding its own set of connections, there is a
+	 * single Hikari pool per database and set of credentials and every caller gets a view onto it, which may only use
+	 * up to its quota of connections at the same time. Callers connecting with a different password or different
+	 * properties get a separate shared pool.
+	 * 
+	 * The settings of the first caller decide the timeouts and lifetime of the shared pool. The size of the shared pool
+	 * is the biggest of all requested shared pool sizes and quotas. Closing a view releases it, the shared pool is only
+	 * closed once all views onto it are closed.
+	 * 
+	 * @param log
+	 *            The logger to use for this view
+	 * @param user
+	 *            The user to connection as
+	 * @param pass
+	 *            The password to use
+	 * @param host
+	 *            The host to connect to
+	 * @param port
+	 *            The port on the host to connect to
+	 * @param database
+	 *            The database to use
+	 * @param quota
+	 *            How many connections of the shared pool this view may use at the same time
+	 * @param sharedPoolSize
+	 *            Requested size of the shared pool
+	 * @param connectionTimeout
+	 *            The longest a query can run until timeout occurs (1-5s recommended)
+	 * @param idleTimeout
+	 *            The longest a connection can sit idle before recycling (10min recom. check dbms config)
+	 * @param maxLifetime
+	 *            The absolute longest length of time a connection can exist (2hr recom. check dbms config)
+	 * @param dataSourceProperties
+	 *            Properties to pass to the JDBC driver, only pools with the same properties are shared
+	 * @return Quota limited view onto the shared pool
+	 */
+	public static ConnectionPool getShared(Logger log, String user, String pass, String host, int port,
+			String database, int quota, int sharedPoolSize, long connectionTimeout, long idleTimeout,
+			long maxLifetime, Map<String, ?> dataSourceProperties) {
+		return getShared(log, DatabaseBackend.MYSQL, user, pass, host, port, database, quota, sharedPoolSize,
+				connectionTimeout, idleTimeout, maxLifetime, dataSourceProperties);
+	}
+
+	/**
+	 * Gets a connection pool shared with all other callers connecting to the same database of the given backend as
+	 * the same user, see
+	 * {@link #getShared(Logger, String, String, String, int, String, int, int, long, long, long, Map)}.
+	 * 
+	 * @param backend
+	 *            The database engine to connect to
+	 * @return Quota limited view onto the shared pool
+	 */
+	public static ConnectionPool getShared(Logger log, DatabaseBackend backend, String user, String pass,
+			String host, int port, String database, int quota, int sharedPoolSize, long connectionTimeout,
+			long idleTimeout, long maxLifetime, Map<String, ?> dataSourceProperties) {
+		if (quota < 1) {
+			throw new IllegalArgumentException("quota < 1");
+		}
+		String key = sharedKey(user, pass, backend.getJdbcUrl(host, port, database), dataSourceProperties);
+		int poolSize = Math.max(quota, sharedPoolSize);
+		synchronized (sharedPools) {
+			SharedPool shared = sharedPools.get(key);
+			if (shared == null) {
+				ConnectionPool pool = new ConnectionPool(log, backend, user, pass, host, port, database, poolSize,
+						connectionTimeout, idleTimeout, maxLifetime, dataSourceProperties);
+				if (pool.datasource == null) {
+					// Failed to connect, hand out a view which isn't available
+					return new ConnectionPool(log, backend, null, null, quota);
+				}
+				shared = new SharedPool(pool);
+				sharedPools.put(key, shared);
+			} else if (shared.pool.datasource.getMaximumPoolSize() < poolSize) {
+				shared.pool.datasource.getHikariConfigMXBean().setMaximumPoolSize(poolSize);
+			}
+			++shared.users;
+			return new ConnectionPool(log, backend, key, shared.pool.datasource, quota);
+		}
+	}
+
+	// Callers only share a pool if they connect with the exact same credentials and driver properties. The password is
+	// only part of the key as a hash, so it doesn't end up in plain text anywhere it may be logged
+	private static String sharedKey(String user, String pass, String jdbcUrl, Map<String, ?> dataSourceProperties) {
+		StringBuilder settings = new StringBuilder();
+		settings.append(pass == null ? "" : pass).append('\0');
+		for (Map.Entry<String, ?> property : new TreeMap<>(dataSourceProperties).entrySet()) {
+			settings.append(property.getKey()).append('=').append(property.getValue()).append('\0');
+		}
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(settings.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder key = new StringBuilder(user).append('@').append(jdbcUrl).append('#');
+		for (byte b : hash) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	private static void releaseShared(String key) throws SQLException {
+		synchronized (sharedPools) {
+			SharedPool shared = sharedPools.get(key);
+			if (shared == null) {
+				return;
+			}
+			if (--shared.users <= 0) {
+				sharedPools.remove(key);
+				shared.pool.close();
+			}
+		}
+	}
+
 	/**
 	 * Gets a single connection from the pool for use. Checks for null database first.
 	 * 
+	 * The time it took to get the connection is recorded. If a slow query threshold is set, the connection is wrapped
+	 * so every query run through it is timed and slow ones are logged.
+	 * 
 	 * @return A new Connection
 	 * @throws SQLException
 	 */
 	public Connection getConnection() throws SQLException {
 		available();
-		return this.datasource.getConnection();
+		HikariDataSource source = this.datasource;
+		long start = System.nanoTime();
+		Semaphore quota = this.quota;
+		if (quota != null) {
+			try {
+				if (!quota.tryAcquire(source.getConnectionTimeout(), TimeUnit.MILLISECONDS)) {
+					throw new SQLTransientConnectionException(
+							"All " + quotaSize + " connections of the quota for this plugin are in use");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection", e);
+			}
+		}
+		Connection connection;
+		try {
+			connection = source.getConnection();
+		} catch (SQLException | RuntimeException e) {
+			if (quota != null) {
+				quota.release();
+			}
+			throw e;
+		}
+		acquisitionLatency.record(System.nanoTime() - start);
+		boolean timed = slowQueryThreshold > 0;
+		if (timed || quota != null) {
+			return ConnectionProxy.wrap(this, connection, timed, quota == null ? null : quota::release);
+		}
+		return connection;
+	}
+
+	void recordQuery(long nanos, String sql) {
+		queryLatency.record(nanos);
+		long threshold = slowQueryThreshold;
+		if (threshold > 0 && TimeUnit.NANOSECONDS.toMillis(nanos) >= threshold) {
+			slowQueries.incrementAndGet();
+			logger.log(Level.WARNING, "Slow query took {0}ms: {1}",
+					new Object[] { TimeUnit.NANOSECONDS.toMillis(nanos), sql == null ? "<unknown>" : sql });
+		}
+	}
+
+	/**
+	 * Sets how long a query may take before it is logged as slow. Disabled by default, setting this to 0 or less
+	 * disables query timing completely again.
+	 * 
+	 * While enabled, connections and their statements are handed out wrapped in proxies which time every execution.
+	 * This adds some overhead to every call and the connections can no longer be cast to driver specific classes, use
+	 * {@link Connection#unwrap(Class)} instead. Connections of views onto shared pools are always wrapped to give back
+	 * their quota on close, but their statements are only wrapped while timing is enabled.
+	 * 
+	 * @param slowQueryThreshold
+	 *            Threshold in milliseconds
+	 */
+	public void setSlowQueryThreshold(long slowQueryThreshold) {
+		this.slowQueryThreshold = slowQueryThreshold;
+	}
+
+	public long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	/**
+	 * @return Amount of connections currently in use, 0 if the pool is unavailable
+	 */
+	public int getActiveConnections() {
+		HikariPoolMXBean pool = getPoolBean();
+		return pool == null ? 0 : pool.getActiveConnections();
+	}
+
+	/**
+	 * @return Amount of connections currently idle in the pool, 0 if the pool is unavailable
+	 */
+	public int getIdleConnections() {
+		HikariPoolMXBean pool = getPoolBean();
+		return pool == null ? 0 : pool.getIdleConnections();
+	}
+
+	/**
+	 * @return Amount of threads currently waiting for a connection, 0 if the pool is unavailable
+	 */
+	public int getWaitingThreads() {
+		HikariPoolMXBean pool = getPoolBean();
+		return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+	}
+
+	/**
+	 * @return Amount of connections in the pool, active or idle, 0 if the pool is unavailable
+	 */
+	public int getTotalConnections() {
+		HikariPoolMXBean pool = getPoolBean();
+		return pool == null ? 0 : pool.getTotalConnections();
+	}
+
+	/**
+	 * @return Time taken to get connections from the pool
+	 */
+	public LatencyHistogram getAcquisitionLatency() {
+		return acquisitionLatency;
+	}
+
+	/**
+	 * @return Execution time of queries, only recorded while a slow query threshold is set
+	 */
+	public LatencyHistogram getQueryLatency() {
+		return queryLatency;
+	}
+
+	/**
+	 * @return Amount of queries which exceeded the slow query threshold
+	 */
+	public long getSlowQueryCount() {
+		return slowQueries.get();
+	}
+
+	/**
+	 * @return The database engine this pool connects to
+	 */
+	public DatabaseBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * @return Whether this is a quota limited view onto a shared pool
+	 */
+	public boolean isShared() {
+		return quota != null;
+	}
+
+	/**
+	 * @return The maximum amount of connections this pool may use at the same time, which is the quota for views onto
+	 *         shared pools
+	 */
+	public int getMaximumPoolSize() {
+		if (quota != null) {
+			return quotaSize;
+		}
+		HikariDataSource source = this.datasource;
+		return source == null ? 0 : source.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return Single line summary of the state of this pool
+	 */
+	public String getStatisticsSummary() {
+		String summary = String.format(
+				"active %d, idle %d, waiting %d, total %d | acquire: %s | queries: %s | %d slow",
+				getActiveConnections(), getIdleConnections(), getWaitingThreads(), getTotalConnections(),
+				acquisitionLatency, queryLatency, getSlowQueryCount());
+		if (quota != null) {
+			summary += String.format(" | shared, quota %d/%d in use", quotaSize - quota.availablePermits(),
+					quotaSize);
+		}
+		return summary;
+	}
+
+	private HikariPoolMXBean getPoolBean() {
+		HikariDataSource source = this.datasource;
+		return source == null ? null : source.getHikariPoolMXBean();
 	}
 
 	/**
@@ -90,6 +474,11 @@ public class ConnectionPool {
 	 */
 	public void close() throws SQLException {
 		available();
+		if (sharedKey != null) {
+			this.datasource = null;
+			releaseShared(sharedKey);
+			return;
+		}
 		this.datasource.close();
 		this.datasource = null;
 	}
@@ -113,4 +502,13 @@ public class ConnectionPool {
 	HikariDataSource getHikariDataSource() {
 		return datasource;
 	}
+
+	private static class SharedPool {
+		private final ConnectionPool pool;
+		private int users;
+
+		private SharedPool(ConnectionPool pool) {
+			this.pool = pool;
+		}
+	}
 }
@@ -0,0 +1,89 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps connections handed out by a {@link ConnectionPool}. If query timing is enabled, every statement created from
+ * the connection reports how long its executions took, so the pool can log slow queries together with their SQL. An
+ * optional callback is run the first time the connection is closed, which is used to give back the quota of shared
+ * pools.
+ */
+final class ConnectionProxy implements InvocationHandler {
+
+	private final ConnectionPool pool;
+	private final Object target;
+	private final String sql;
+	private final boolean timed;
+	private final Runnable onClose;
+	private final AtomicBoolean closed;
+
+	private ConnectionProxy(ConnectionPool pool, Object target, String sql, boolean timed, Runnable onClose) {
+		this.pool = pool;
+		this.target = target;
+		this.sql = sql;
+		this.timed = timed;
+		this.onClose = onClose;
+		this.closed = new AtomicBoolean();
+	}
+
+	static Connection wrap(ConnectionPool pool, Connection connection, boolean timed, Runnable onClose) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionProxy(pool, connection, null, timed, onClose));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (target instanceof Connection) {
+			if (name.equals("close") && onClose != null) {
+				try {
+					return invokeTarget(method, args);
+				} finally {
+					if (closed.compareAndSet(false, true)) {
+						onClose.run();
+					}
+				}
+			}
+			Object result = invokeTarget(method, args);
+			if (timed && result instanceof Statement && (name.equals("createStatement")
+					|| name.equals("prepareStatement") || name.equals("prepareCall"))) {
+				String statementSql = args != null && args.length > 0 && args[0] instanceof String
+						? (String) args[0]
+						: null;
+				Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+						: result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { type },
+						new ConnectionProxy(pool, result, statementSql, true, null));
+			}
+			return result;
+		}
+		if (!name.startsWith("execute")) {
+			return invokeTarget(method, args);
+		}
+		long start = System.nanoTime();
+		try {
+			return invokeTarget(method, args);
+		} finally {
+			long duration = System.nanoTime() - start;
+			String executed = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+			pool.recordQuery(duration, executed);
+		}
+	}
+
+	private Object invokeTarget(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work to be done with a pooled connection, see
+ * {@link ManagedDatasource#executeAsync(ConnectionTask)}. The connection is
+ * closed after the task finishes, so it must not be held on to.
+ *
+ * @param <T> Type of the result
+ */
+@FunctionalInterface
+public interface ConnectionTask<T> {
+
+	T run(Connection connection) throws SQLException;
+
+}
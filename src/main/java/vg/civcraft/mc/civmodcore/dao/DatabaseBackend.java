@@ -0,0 +1,83 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+/**
+ * Database engines a {@link ConnectionPool} can connect to. Besides MySQL/MariaDB this allows running against an
+ * embedded H2 database in MySQL compatibility mode, so code using a {@link ManagedDatasource} can be tested and
+ * benchmarked in process without a database server. The H2 driver is not bundled, it has to be on the classpath when
+ * using one of the H2 backends.
+ */
+public enum DatabaseBackend {
+
+	/**
+	 * MySQL or MariaDB server at the configured host and port
+	 */
+	MYSQL {
+
+		@Override
+		public String getJdbcUrl(String host, int port, String database) {
+			return "jdbc:mysql://" + host + ":" + port + "/" + database;
+		}
+	},
+
+	/**
+	 * Embedded H2 database kept in memory, named after the configured database. Host and port are ignored. The
+	 * database lives until the JVM exits, so pools of the same name see the same data.
+	 */
+	H2_MEMORY {
+
+		@Override
+		public String getJdbcUrl(String host, int port, String database) {
+			return "jdbc:h2:mem:" + database + H2_OPTIONS + ";DB_CLOSE_DELAY=-1";
+		}
+	},
+
+	/**
+	 * Embedded H2 database stored in files, the configured database is used as path of the database files relative to
+	 * the server directory. Host and port are ignored.
+	 */
+	H2_FILE {
+
+		@Override
+		public String getJdbcUrl(String host, int port, String database) {
+			return "jdbc:h2:./" + database + H2_OPTIONS;
+		}
+	};
+
+	private static final String H2_OPTIONS = ";MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+
+	/**
+	 * @param host
+	 *            The host to connect to
+	 * @param port
+	 *            The port on the host to connect to
+	 * @param database
+	 *            The database to use
+	 * @return JDBC url to connect to the given database with this backend
+	 */
+	public abstract String getJdbcUrl(String host, int port, String database);
+
+	/**
+	 * @return Whether this backend needs a database server, in which case host and port have to be configured
+	 */
+	public boolean isRemote() {
+		return this == MYSQL;
+	}
+
+	/**
+	 * Parses a backend from configuration, ignoring case and treating '-' like '_', so both "h2-memory" and
+	 * "H2_MEMORY" work.
+	 * 
+	 * @param name
+	 *            Name of the backend, null for the default
+	 * @return The backend with the given name, {@link #MYSQL} if null
+	 * @throws IllegalArgumentException
+	 *             If no backend with the given name exists
+	 */
+	public static DatabaseBackend fromString(String name) {
+		if (name == null) {
+			return MYSQL;
+		}
+		return valueOf(name.trim().replace('-', '_').toUpperCase());
+	}
+
+}
@@ -0,0 +1,499 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read through cache for values stored in the database, replacing the usual "load from the database, keep in a map,
+ * mark dirty, save later" pattern.
+ * 
+ * Values missing from the cache are loaded with the {@link CacheLoader} of the cache. Values which were changed have
+ * to be marked dirty with {@link #put(Object, Object)} or {@link #markDirty(Object)}, they are then written back with
+ * the {@link CacheWriter} of the cache every flush interval, when they are evicted and when the cache is closed.
+ * Flushes run on a thread owned by the cache, so writers must be able to read values while they may be changed by
+ * other threads, just like with a {@link WriteBehindQueue}. If writing fails, the changed values are kept and written
+ * again later, waiting twice as long after every failed flush.
+ * 
+ * The cache holds at most the configured maximum amount of values, beyond that the least recently used ones are
+ * evicted. Values which weren't accessed for the configured expiry time are evicted as well. Dirty values are still
+ * returned by the cache after being evicted, until they were written.
+ * 
+ * Obtain instances through
+ * {@link ManagedDatasource#createCache(CacheLoader, CacheWriter, int, long, long)}, they are flushed when the
+ * datasource is closed.
+ *
+ * @param <K> Type of the keys, must implement equals and hashCode
+ * @param <V> Type of the values
+ */
+public class DatabaseCache<K, V> {
+
+	private static final long SHUTDOWN_WAIT = 60000l;
+
+	private static final long MAX_RETRY_DELAY = 60000l;
+
+	private final ManagedDatasource datasource;
+	private final Logger logger;
+	private final CacheLoader<K, V> loader;
+	private final CacheWriter<K, V> writer;
+	private final int maxSize;
+	private final long expireAfterAccess;
+	private final long flushInterval;
+	private final ScheduledExecutorService maintainer;
+
+	private final Object lock = new Object();
+	// In access order, so the first entry is always the least recently used one
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+	// Dirty values which were evicted, but not written yet
+	private Map<K, V> evictedDirty;
+	// Values of the flush currently running, which the database may not contain yet
+	private Map<K, V> writing;
+	// Loads currently running, by the key they load
+	private final Map<K, RunningLoad> loads;
+	private int failedFlushes;
+	// Flushes which aren't explicitly requested wait until this time after a failed one
+	private long retryAt;
+	private boolean flushRequested;
+	private boolean closed;
+	private long hits;
+	private long misses;
+
+	DatabaseCache(ManagedDatasource datasource, Logger logger, String name, CacheLoader<K, V> loader,
+			CacheWriter<K, V> writer, int maxSize, long expireAfterAccess, long flushInterval) {
+		if (loader == null) {
+			throw new IllegalArgumentException("loader may not be null");
+		}
+		if (maxSize < 1 || expireAfterAccess < 1 || flushInterval < 1) {
+			throw new IllegalArgumentException("maxSize < 1 || expireAfterAccess < 1 || flushInterval < 1");
+		}
+		this.datasource = datasource;
+		this.logger = logger;
+		this.loader = loader;
+		this.writer = writer;
+		this.maxSize = maxSize;
+		this.expireAfterAccess = expireAfterAccess;
+		this.flushInterval = flushInterval;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.evictedDirty = new HashMap<>();
+		this.writing = Collections.emptyMap();
+		this.loads = new HashMap<>();
+		this.maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name + " Cache");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.maintainer.scheduleWithFixedDelay(this::maintain, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the value for the given key, loading it on the calling thread if it isn't cached. As this may block, avoid
+	 * calling it on the main thread and use {@link #getAsync(Object)} or {@link #getIfPresent(Object)} instead.
+	 * 
+	 * @param key
+	 *            Key to get the value for
+	 * @return Cached or loaded value, null if the loader didn't find one
+	 * @throws SQLException
+	 *             If loading the value failed
+	 */
+	public V get(K key) throws SQLException {
+		V value = getIfPresent(key);
+		if (value != null) {
+			return value;
+		}
+		try (Connection connection = datasource.getConnection();) {
+			return loadInto(connection, key);
+		}
+	}
+
+	/**
+	 * Gets the value for the given key, loading it on a database worker thread of the datasource if it isn't cached.
+	 * 
+	 * @param key
+	 *            Key to get the value for
+	 * @return Future completed with the cached or loaded value, which is already completed if the value is cached
+	 */
+	public CompletableFuture<V> getAsync(K key) {
+		V value = getIfPresent(key);
+		if (value != null) {
+			return CompletableFuture.completedFuture(value);
+		}
+		return datasource.executeAsync(connection -> loadInto(connection, key));
+	}
+
+	/**
+	 * Gets the value for the given key only if it is cached, never touching the database.
+	 * 
+	 * @param key
+	 *            Key to get the value for
+	 * @return Cached value or null
+	 */
+	public V getIfPresent(K key) {
+		synchronized (lock) {
+			CacheEntry<V> entry = entries.get(key);
+			if (entry != null) {
+				entry.lastAccess = System.currentTimeMillis();
+				hits++;
+				return entry.value;
+			}
+			V pending = takePending(key);
+			if (pending != null) {
+				hits++;
+				return pending;
+			}
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Puts a new or changed value into the cache and marks it dirty, so it is written with the next flush. If this
+	 * cache has no writer, the value is only cached.
+	 * 
+	 * @param key
+	 *            Key of the value
+	 * @param value
+	 *            Value to cache, may not be null
+	 */
+	public void put(K key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value may not be null");
+		}
+		synchronized (lock) {
+			checkOpen();
+			evictedDirty.remove(key);
+			insert(key, value, writer != null);
+			changed(key);
+		}
+	}
+
+	/**
+	 * Marks the cached value of the given key as changed, so it is written with the next flush.
+	 * 
+	 * @param key
+	 *            Key of the changed value
+	 * @return True if the value was cached and marked, false if it isn't cached
+	 */
+	public boolean markDirty(K key) {
+		synchronized (lock) {
+			checkOpen();
+			changed(key);
+			CacheEntry<V> entry = entries.get(key);
+			if (entry == null) {
+				return evictedDirty.containsKey(key);
+			}
+			entry.dirty = writer != null;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the value of the given key from the cache, discarding any changes which weren't written yet. Use this
+	 * after deleting the value from the database.
+	 * 
+	 * @param key
+	 *            Key of the value to remove
+	 */
+	public void invalidate(K key) {
+		synchronized (lock) {
+			entries.remove(key);
+			evictedDirty.remove(key);
+			changed(key);
+		}
+	}
+
+	/**
+	 * @return Amount of values currently cached
+	 */
+	public int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return Amount of changed values which weren't written yet
+	 */
+	public int getDirtyCount() {
+		synchronized (lock) {
+			int count = evictedDirty.size();
+			for (CacheEntry<V> entry : entries.values()) {
+				if (entry.dirty) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * @return How many lookups were answered from the cache
+	 */
+	public long getHits() {
+		synchronized (lock) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return How many lookups had to go to the database
+	 */
+	public long getMisses() {
+		synchronized (lock) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Writes all changed values on the flushing thread of this cache, without waiting for the next flush interval.
+	 */
+	public void flushAsync() {
+		synchronized (lock) {
+			if (closed || flushRequested) {
+				return;
+			}
+			flushRequested = true;
+		}
+		maintainer.execute(() -> flush(true));
+	}
+
+	/**
+	 * Stops accepting changes, writes all changed values and waits for it to finish.
+	 */
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		maintainer.execute(() -> flush(true));
+		maintainer.shutdown();
+		try {
+			if (!maintainer.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS)) {
+				logger.log(Level.SEVERE, "Cache did not finish flushing in time, {0} changed values lost",
+						getDirtyCount());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private V loadInto(Connection connection, K key) throws SQLException {
+		RunningLoad load;
+		synchronized (lock) {
+			load = loads.computeIfAbsent(key, k -> new RunningLoad());
+			load.count++;
+		}
+		try {
+			while (true) {
+				long changes;
+				synchronized (lock) {
+					changes = load.changes;
+				}
+				V value = loader.load(connection, key);
+				synchronized (lock) {
+					// Someone else may have put or loaded a value in the meantime, which takes precedence
+					CacheEntry<V> existing = entries.get(key);
+					if (existing != null) {
+						return existing.value;
+					}
+					V pending = takePending(key);
+					if (pending != null) {
+						return pending;
+					}
+					if (load.changes != changes) {
+						// The value was changed and may have been written while loading, so what we read may be
+						// outdated already
+						continue;
+					}
+					if (value != null) {
+						insert(key, value, false);
+					}
+					return value;
+				}
+			}
+		} finally {
+			synchronized (lock) {
+				if (--load.count == 0) {
+					loads.remove(key);
+				}
+			}
+		}
+	}
+
+	// Tells loads of the given key which are running that the value changed. Only call while holding the lock
+	private void changed(K key) {
+		RunningLoad load = loads.get(key);
+		if (load != null) {
+			load.changes++;
+		}
+	}
+
+	// Puts a value which was evicted, but not written yet, back into the cache. Only call while holding the lock
+	private V takePending(K key) {
+		V pending = evictedDirty.remove(key);
+		if (pending != null) {
+			insert(key, pending, true);
+			return pending;
+		}
+		pending = writing.get(key);
+		if (pending != null) {
+			insert(key, pending, false);
+		}
+		return pending;
+	}
+
+	// Only call while holding the lock
+	private void insert(K key, V value, boolean dirty) {
+		CacheEntry<V> entry = new CacheEntry<>(value, System.currentTimeMillis());
+		CacheEntry<V> previous = entries.put(key, entry);
+		entry.dirty = dirty || (previous != null && previous.dirty);
+		if (entries.size() <= maxSize) {
+			return;
+		}
+		Iterator<Map.Entry<K, CacheEntry<V>>> iter = entries.entrySet().iterator();
+		while (entries.size() > maxSize) {
+			evict(iter, iter.next());
+		}
+		if (evictedDirty.size() >= maxSize && !flushRequested && !closed && failedFlushes == 0) {
+			// Don't let evicted changes pile up until the next flush interval. While backing off after a failed
+			// flush, the next flush interval picks them up once it's time
+			flushRequested = true;
+			maintainer.execute(() -> flush(false));
+		}
+	}
+
+	// Only call while holding the lock
+	private void evict(Iterator<Map.Entry<K, CacheEntry<V>>> iter, Map.Entry<K, CacheEntry<V>> entry) {
+		iter.remove();
+		if (entry.getValue().dirty) {
+			evictedDirty.put(entry.getKey(), entry.getValue().value);
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Cache was already closed");
+		}
+	}
+
+	private void maintain() {
+		synchronized (lock) {
+			long expiry = System.currentTimeMillis() - expireAfterAccess;
+			Iterator<Map.Entry<K, CacheEntry<V>>> iter = entries.entrySet().iterator();
+			// Access order, so we can stop at the first entry which isn't expired
+			while (iter.hasNext()) {
+				Map.Entry<K, CacheEntry<V>> eldest = iter.next();
+				if (eldest.getValue().lastAccess > expiry) {
+					break;
+				}
+				evict(iter, eldest);
+			}
+		}
+		flush(false);
+	}
+
+	// Forced flushes ignore the back off after a failed flush
+	private void flush(boolean force) {
+		Map<K, V> toWrite;
+		synchronized (lock) {
+			flushRequested = false;
+			if (writer == null || (!force && System.currentTimeMillis() < retryAt)) {
+				return;
+			}
+			toWrite = evictedDirty;
+			evictedDirty = new HashMap<>();
+			for (Map.Entry<K, CacheEntry<V>> entry : entries.entrySet()) {
+				if (entry.getValue().dirty) {
+					entry.getValue().dirty = false;
+					toWrite.put(entry.getKey(), entry.getValue().value);
+				}
+			}
+			// Published together with the snapshot, so a lookup of an evicted dirty key always finds it in either
+			// evictedDirty or writing instead of loading the outdated row
+			writing = toWrite;
+		}
+		if (toWrite.isEmpty()) {
+			return;
+		}
+		try (Connection connection = datasource.getConnection();) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try {
+				for (Map.Entry<K, V> entry : toWrite.entrySet()) {
+					writer.write(connection, entry.getKey(), entry.getValue());
+				}
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+			synchronized (lock) {
+				failedFlushes = 0;
+				retryAt = 0;
+			}
+		} catch (SQLException | RuntimeException e) {
+			long delay;
+			synchronized (lock) {
+				failedFlushes++;
+				delay = Math.min(flushInterval << Math.min(failedFlushes - 1, 20), MAX_RETRY_DELAY);
+				retryAt = System.currentTimeMillis() + delay;
+			}
+			logger.log(Level.SEVERE,
+					"Failed to write " + toWrite.size() + " changed cache values, retrying in " + delay + "ms", e);
+			synchronized (lock) {
+				for (Map.Entry<K, V> entry : toWrite.entrySet()) {
+					CacheEntry<V> cached = entries.get(entry.getKey());
+					if (cached != null) {
+						if (cached.value == entry.getValue()) {
+							cached.dirty = true;
+						}
+					} else {
+						evictedDirty.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		} finally {
+			synchronized (lock) {
+				writing = Collections.emptyMap();
+				// Loads which started while these values were being written may have read the old ones
+				for (Map.Entry<K, RunningLoad> load : loads.entrySet()) {
+					if (toWrite.containsKey(load.getKey())) {
+						load.getValue().changes++;
+					}
+				}
+			}
+		}
+	}
+
+	private static class RunningLoad {
+
+		private int count;
+		private long changes;
+	}
+
+	private static class CacheEntry<V> {
+
+		private final V value;
+		private long lastAccess;
+		private boolean dirty;
+
+		private CacheEntry(V value, long lastAccess) {
+			this.value = value;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.util.Collection;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Shows the connection pool statistics of every active {@link ManagedDatasource}
+ */
+public class DatabaseStatsCommand implements CommandExecutor {
+
+	@Override
+	public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+		Collection<ManagedDatasource> datasources = ManagedDatasource.getActiveDatasources();
+		if (datasources.isEmpty()) {
+			sender.sendMessage(ChatColor.YELLOW + "No database connections are active");
+			return true;
+		}
+		for (ManagedDatasource datasource : datasources) {
+			sender.sendMessage(ChatColor.GOLD + datasource.getPlugin().getName() + ": " + ChatColor.WHITE
+					+ datasource.getStatisticsSummary());
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,103 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations with fixed millisecond buckets. Cheap enough to record every single connection
+ * acquisition or query.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bounds (inclusive) of all buckets in milliseconds, there is one more bucket for anything above the last one
+	 */
+	private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong totalNanos;
+	private final AtomicLong maxNanos;
+
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+		this.count = new AtomicLong();
+		this.totalNanos = new AtomicLong();
+		this.maxNanos = new AtomicLong();
+	}
+
+	public void record(long nanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+			++bucket;
+		}
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		do {
+			max = maxNanos.get();
+		} while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long samples = count.get();
+		return samples == 0 ? 0 : (totalNanos.get() / (double) samples) / 1_000_000;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1_000_000.0;
+	}
+
+	/**
+	 * Gets the upper bound of the bucket containing the given percentile.
+	 *
+	 * @param percentile
+	 *            Percentile between 0 and 1
+	 * @return Upper bound of the bucket in milliseconds or -1 if the percentile is above the highest bucket bound
+	 */
+	public long getPercentileBound(double percentile) {
+		long samples = count.get();
+		long needed = (long) Math.ceil(samples * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			seen += buckets.get(i);
+			if (seen >= needed) {
+				return BUCKET_BOUNDS[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Upper bounds of all buckets in milliseconds, excluding the overflow bucket
+	 */
+	public static long[] getBucketBounds() {
+		return BUCKET_BOUNDS.clone();
+	}
+
+	/**
+	 * @return Amount of samples in each bucket, the last entry is the overflow bucket
+	 */
+	public long[] getBucketCounts() {
+		long[] result = new long[buckets.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		long p99 = getPercentileBound(0.99);
+		return String.format("%d samples, mean %.2fms, p99 %s, max %.2fms", getCount(), getMeanMillis(),
+				p99 < 0 ? ">" + BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] + "ms" : "<=" + p99 + "ms", getMaxMillis());
+	}
+
+}
@@ -1,5 +1,6 @@
 package vg.civcraft.mc.civmodcore.dao;
 
+import com.zaxxer.hikari.HikariDataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -7,19 +8,41 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.bukkit.util.NumberConversions;
 import vg.civcraft.mc.civmodcore.ACivMod;
@@ -57,18 +80,43 @@ import vg.civcraft.mc.civmodcore.ACivMod;
 public class ManagedDatasource implements ConfigurationSerializable {
 
 	private static final long MAX_WAIT_FOR_LOCK = 600000l;
-	private static final long WAIT_PERIOD = 500l;
+	private static final long MIN_WAIT_PERIOD = 50l;
+	private static final long MAX_WAIT_PERIOD = 5000l;
+	private static final int ASYNC_QUEUE_SIZE = 10000;
+	private static final long ASYNC_SHUTDOWN_WAIT = 30000l;
+	private static final int STREAMING_FETCH_SIZE = 1000;
+
+	private static final Set<ManagedDatasource> activeDatasources = new CopyOnWriteArraySet<>();
+
+	// Shared by all datasources, so independent plugins can migrate at the same time
+	private static final ExecutorService migrationExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Database Migration #" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	private ConnectionPool connections;
+	// Replaced while other threads may be reading through it, see configureReadReplica()
+	private volatile ConnectionPool readConnections;
 	private Logger logger;
 	private ACivMod plugin;
+	private String host;
+	private int port;
+	private String database;
+	private Map<String, Object> readReplica;
 
 	private static final String CHECK_CREATE_MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS managed_plugin_data ("
 			+ "managed_id BIGINT NOT NULL AUTO_INCREMENT, " + "plugin_name VARCHAR(120) NOT NULL, "
 			+ "management_began TIMESTAMP NOT NULL DEFAULT NOW(), " + "current_migration_number INT NOT NULL, "
 			+ "last_migration TIMESTAMP, " + "CONSTRAINT pk_managed_plugin_data PRIMARY KEY (managed_id), "
 			+ "CONSTRAINT uniq_managed_plugin UNIQUE (plugin_name), "
-			+ "INDEX idx_managed_plugin USING BTREE (plugin_name)" + ");";
+			+ "INDEX idx_managed_plugin (plugin_name) USING BTREE" + ");";
 
 	private static final String CHECK_LAST_MIGRATION = "SELECT current_migration_number FROM managed_plugin_data WHERE plugin_name = ?;";
 
@@ -93,6 +141,15 @@ public class ManagedDatasource implements ConfigurationSerializable {
 
 	private ExecutorService postExecutor;
 
+	private ThreadPoolExecutor asyncExecutor;
+
+	private List<WriteBehindQueue> writeBehindQueues;
+
+	private List<DatabaseCache<?, ?>> caches;
+
+	private volatile int migrationsCompleted;
+	private volatile int migrationsTotal;
+
 	/**
 	 * Create a new ManagedDatasource.
 	 * 
@@ -148,12 +205,72 @@ public class ManagedDatasource implements ConfigurationSerializable {
 	 */
 	public ManagedDatasource(ACivMod plugin, String user, String pass, String host, int port, String database,
 			int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime) {
-		internal(plugin, user, pass, host, port, database, poolSize, connectionTimeout, idleTimeout, maxLifetime);
+		internal(plugin, DatabaseBackend.MYSQL, user, pass, host, port, database, poolSize, connectionTimeout,
+				idleTimeout, maxLifetime, 0, Collections.emptyMap());
+	}
+
+	/**
+	 * Create a new ManagedDatasource, which uses a connection pool shared with all other plugins connecting to the same
+	 * database as the same user instead of its own one. This plugin may only use up to poolSize connections of the
+	 * shared pool at the same time. See {@link ConnectionPool#getShared} for details.
+	 * 
+	 * Otherwise identical to
+	 * {@link #ManagedDatasource(ACivMod, String, String, String, int, String, int, long, long, long)}.
+	 * 
+	 * @param sharedPoolSize
+	 *            The requested size of the shared pool, the biggest size requested by any plugin is used
+	 */
+	public ManagedDatasource(ACivMod plugin, String user, String pass, String host, int port, String database,
+			int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime, int sharedPoolSize) {
+		internal(plugin, DatabaseBackend.MYSQL, user, pass, host, port, database, poolSize, connectionTimeout,
+				idleTimeout, maxLifetime, Math.max(sharedPoolSize, 1), Collections.emptyMap());
+	}
+
+	/**
+	 * Create a new ManagedDatasource passing additional properties to the JDBC driver, see
+	 * {@link ConnectionPool#MYSQL_PERFORMANCE_PROPERTIES} for a recommended set.
+	 * 
+	 * Otherwise identical to
+	 * {@link #ManagedDatasource(ACivMod, String, String, String, int, String, int, long, long, long, int)}.
+	 * 
+	 * @param sharedPoolSize
+	 *            The requested size of the shared pool or 0 to use a pool only for this plugin
+	 * @param dataSourceProperties
+	 *            Properties to pass to the JDBC driver
+	 */
+	public ManagedDatasource(ACivMod plugin, String user, String pass, String host, int port, String database,
+			int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime, int sharedPoolSize,
+			Map<String, ?> dataSourceProperties) {
+		internal(plugin, DatabaseBackend.MYSQL, user, pass, host, port, database, poolSize, connectionTimeout,
+				idleTimeout, maxLifetime, Math.max(sharedPoolSize, 0), dataSourceProperties);
+	}
+
+	/**
+	 * Create a new ManagedDatasource connecting to the given database backend. With
+	 * {@link DatabaseBackend#H2_MEMORY} this gives an in process database, which is useful for tests and benchmarks of
+	 * code built on top of a ManagedDatasource. Host and port are ignored by embedded backends.
+	 * 
+	 * Otherwise identical to
+	 * {@link #ManagedDatasource(ACivMod, String, String, String, int, String, int, long, long, long, int, Map)}.
+	 * 
+	 * @param backend
+	 *            The database engine to connect to
+	 */
+	public ManagedDatasource(ACivMod plugin, DatabaseBackend backend, String user, String pass, String host, int port,
+			String database, int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime,
+			int sharedPoolSize, Map<String, ?> dataSourceProperties) {
+		internal(plugin, backend, user, pass, host, port, database, poolSize, connectionTimeout, idleTimeout,
+				maxLifetime, Math.max(sharedPoolSize, 0), dataSourceProperties);
 	}
 
 	public ManagedDatasource(Map<String, Object> data) {
 		ACivMod plugin = (ACivMod) Bukkit.getPluginManager().getPlugin((String) data.get("plugin"));
+		DatabaseBackend backend = DatabaseBackend.fromString((String) data.get("backend"));
 		String user = (String) data.get("user");
+		if (user == null && !backend.isRemote()) {
+			// Embedded databases don't need credentials, but a user name is still required
+			user = "sa";
+		}
 		String password = (String) data.get("password");
 		String host = (String) data.get("host");
 		int port = NumberConversions.toInt(data.get("port"));
@@ -162,13 +279,63 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		long connectionTimeout = NumberConversions.toLong(data.get("connectionTimeout"));
 		long idleTimeout = NumberConversions.toLong(data.get("idleTimeout"));
 		long maxLifetime = NumberConversions.toLong(data.get("maxLifetime"));
+		int sharedPoolSize = 0;
+		if (Boolean.TRUE.equals(data.get("sharedPool"))) {
+			sharedPoolSize = data.containsKey("sharedPoolSize") ? NumberConversions.toInt(data.get("sharedPoolSize"))
+					: ConnectionPool.DEFAULT_SHARED_POOL_SIZE;
+			sharedPoolSize = Math.max(sharedPoolSize, 1);
+		}
 
-		internal(plugin, user, password, host, port, database, maxPoolSize, connectionTimeout, idleTimeout, maxLifetime);
+		// "performanceProfile: true" enables the recommended driver settings, which can be overwritten or extended by
+		// entries in "dataSourceProperties"
+		Map<String, Object> dataSourceProperties = new HashMap<>();
+		if (Boolean.TRUE.equals(data.get("performanceProfile"))) {
+			dataSourceProperties.putAll(ConnectionPool.MYSQL_PERFORMANCE_PROPERTIES);
+		}
+		Object configuredProperties = data.get("dataSourceProperties");
+		if (configuredProperties instanceof ConfigurationSection) {
+			configuredProperties = ((ConfigurationSection) configuredProperties).getValues(false);
+		}
+		if (configuredProperties instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) configuredProperties).entrySet()) {
+				dataSourceProperties.put(String.valueOf(entry.getKey()), entry.getValue());
+			}
+		}
+
+		internal(plugin, backend, user, password, host, port, database, maxPoolSize, connectionTimeout, idleTimeout,
+				maxLifetime, sharedPoolSize, dataSourceProperties);
+
+		// Optional "readReplica" section, only host is required, everything else defaults to the primary settings
+		Object replica = data.get("readReplica");
+		if (replica instanceof ConfigurationSection) {
+			replica = ((ConfigurationSection) replica).getValues(false);
+		}
+		if (replica instanceof Map) {
+			Map<?, ?> replicaData = (Map<?, ?>) replica;
+			String replicaHost = (String) replicaData.get("host");
+			if (replicaHost != null) {
+				configureReadReplica(
+						replicaData.containsKey("user") ? (String) replicaData.get("user") : user,
+						replicaData.containsKey("password") ? (String) replicaData.get("password") : password,
+						replicaHost,
+						replicaData.containsKey("port") ? NumberConversions.toInt(replicaData.get("port")) : port,
+						replicaData.containsKey("database") ? (String) replicaData.get("database") : database,
+						replicaData.containsKey("poolsize") ? NumberConversions.toInt(replicaData.get("poolsize"))
+								: maxPoolSize);
+			}
+		}
+		if (data.containsKey("slowQueryThreshold")) {
+			setSlowQueryThreshold(NumberConversions.toLong(data.get("slowQueryThreshold")));
+		}
 	}
 
-	private void internal(ACivMod plugin, String user, String pass, String host, int port, String database,
-			int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime) {
+	private void internal(ACivMod plugin, DatabaseBackend backend, String user, String pass, String host, int port,
+			String database, int poolSize, long connectionTimeout, long idleTimeout, long maxLifetime,
+			int sharedPoolSize, Map<String, ?> dataSourceProperties) {
 		this.plugin = plugin;
+		this.host = host;
+		this.port = port;
+		this.database = database;
 		this.logger = plugin.getLogger();
 		if (logger != null && plugin != null) {
 			logger.log(Level.INFO, "Preparing to generate ConnectionPool for {0}.", plugin.getName());
@@ -176,9 +343,18 @@ public class ManagedDatasource implements ConfigurationSerializable {
 			System.err.println("Invalid plugin or logger, cannot safely generate Connection Pool!");
 			throw new IllegalArgumentException("Bad settings");
 		}
-		logger.log(Level.INFO, "Connecting to {0}@{1}:{2} using {3}", new Object[] { database, host, port, user });
-		this.connections = new ConnectionPool(logger, user, pass, host, port, database, poolSize, connectionTimeout,
-				idleTimeout, maxLifetime);
+		if (backend.isRemote()) {
+			logger.log(Level.INFO, "Connecting to {0}@{1}:{2} using {3}", new Object[] { database, host, port, user });
+		} else {
+			logger.log(Level.INFO, "Opening embedded {0} database {1}", new Object[] { backend, database });
+		}
+		if (sharedPoolSize > 0) {
+			this.connections = ConnectionPool.getShared(logger, backend, user, pass, host, port, database, poolSize,
+					sharedPoolSize, connectionTimeout, idleTimeout, maxLifetime, dataSourceProperties);
+		} else {
+			this.connections = new ConnectionPool(logger, backend, user, pass, host, port, database, poolSize,
+					connectionTimeout, idleTimeout, maxLifetime, dataSourceProperties);
+		}
 
 		this.firstMigration = Integer.MAX_VALUE;
 		this.migrations = new TreeMap<Integer, Migration>();
@@ -186,6 +362,20 @@ public class ManagedDatasource implements ConfigurationSerializable {
 
 		this.postExecutor = Executors.newSingleThreadExecutor();
 
+		// One thread per pooled connection, more threads would only wait for a connection
+		AtomicInteger threadCounter = new AtomicInteger();
+		this.asyncExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60l, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(ASYNC_QUEUE_SIZE), runnable -> {
+					Thread thread = new Thread(runnable,
+							plugin.getName() + " Database Worker #" + threadCounter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.asyncExecutor.allowCoreThreadTimeOut(true);
+		this.writeBehindQueues = new CopyOnWriteArrayList<>();
+		this.caches = new CopyOnWriteArrayList<>();
+		activeDatasources.add(this);
+
 		getReady();
 	}
 
@@ -257,6 +447,50 @@ public class ManagedDatasource implements ConfigurationSerializable {
 	 *         start migration in a timely fashion or errors occurred.
 	 */
 	public boolean updateDatabase() {
+		return updateDatabase(null);
+	}
+
+	/**
+	 * Runs {@link #updateDatabase()} on a separate thread, so the server can continue starting up while waiting for
+	 * the migration lock or applying migrations. Datasources of different plugins migrate concurrently.
+	 * 
+	 * Post migration calls are run off the main thread as well, just like with {@link #updateDatabase()}. Use
+	 * {@link #getMainThreadExecutor()} to react to the result on the main thread, for example:
+	 * 
+	 * <code>
+	 *   myManagedDatasource.updateDatabaseAsync(null).thenAcceptAsync(success -> {
+	 *   	if (!success) {
+	 *   		getServer().getPluginManager().disablePlugin(this);
+	 *   	}
+	 *   }, myManagedDatasource.getMainThreadExecutor());
+	 * </code>
+	 * 
+	 * @param listener
+	 *            Notified after each applied migration, may be null
+	 * @return Future completed with the result of {@link #updateDatabase()}
+	 */
+	public CompletableFuture<Boolean> updateDatabaseAsync(MigrationListener listener) {
+		return CompletableFuture.supplyAsync(() -> updateDatabase(listener), migrationExecutor);
+	}
+
+	/**
+	 * @return Amount of migrations applied so far by the currently running or last finished update
+	 */
+	public int getMigrationsCompleted() {
+		return migrationsCompleted;
+	}
+
+	/**
+	 * @return Amount of migrations the currently running or last finished update has to apply, 0 if the database was
+	 *         already up to date or no update was started yet
+	 */
+	public int getMigrationsTotal() {
+		return migrationsTotal;
+	}
+
+	private synchronized boolean updateDatabase(MigrationListener listener) {
+		migrationsCompleted = 0;
+		migrationsTotal = 0;
 		try {
 			checkWaitLock();
 		} catch (SQLException se) {
@@ -287,12 +521,13 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		}
 
 		NavigableMap<Integer, Migration> newApply = migrations.tailMap(currentLevel, false);
+		migrationsTotal = newApply.size();
 
 		try {
 			if (newApply.size() > 0) {
 				logger.log(Level.INFO, "{0} database is behind, {1} migrations found", new Object[] { plugin.getName(),
 						newApply.size() });
-				if (doMigrations(newApply)) {
+				if (doMigrations(newApply, listener)) {
 					logger.log(Level.INFO, "{0} fully migrated.", plugin.getName());
 				} else {
 					logger.log(Level.WARNING, "{0} failed to apply updates.", plugin.getName());
@@ -312,7 +547,7 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		}
 	}
 
-	private boolean doMigrations(NavigableMap<Integer, Migration> newApply) {
+	private boolean doMigrations(NavigableMap<Integer, Migration> newApply, MigrationListener listener) {
 		try {
 			for (Integer next : newApply.keySet()) {
 				logger.log(Level.INFO, "Migration {0} ] Applying", next);
@@ -337,6 +572,13 @@ public class ManagedDatasource implements ConfigurationSerializable {
 						return false;
 					}
 
+					migrationsCompleted++;
+					logger.log(Level.INFO, "{0} migration progress: {1}/{2}",
+							new Object[] { plugin.getName(), migrationsCompleted, migrationsTotal });
+					if (listener != null) {
+						listener.migrationApplied(next, migrationsCompleted, migrationsTotal);
+					}
+
 				} else {
 					logger.log(Level.INFO, "Migration {0} ] Failed.", next);
 					return false;
@@ -439,7 +681,9 @@ public class ManagedDatasource implements ConfigurationSerializable {
 	}
 
 	/**
-	 * This attempts to acquire a lock every WAIT_PERIOD milliseconds, up to MAX_WAIT_FOR_LOCK milliseconds.
+	 * This attempts to acquire a lock, up to MAX_WAIT_FOR_LOCK milliseconds. The wait between attempts starts at
+	 * MIN_WAIT_PERIOD milliseconds and doubles after every failed attempt up to MAX_WAIT_PERIOD, so a lock released
+	 * quickly is picked up quickly without hammering the database during long migrations of another server.
 	 * 
 	 * If max wait is exhausted, throws a TimeoutException.
 	 * 
@@ -463,6 +707,7 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		}
 		/* Now get our own lock */
 		long start = System.currentTimeMillis();
+		long waitPeriod = MIN_WAIT_PERIOD;
 		while (System.currentTimeMillis() - start < MAX_WAIT_FOR_LOCK) {
 			try (Connection connection = getConnection();
 					PreparedStatement tryAcquire = connection.prepareStatement(ACQUIRE_LOCK);) {
@@ -482,11 +727,16 @@ public class ManagedDatasource implements ConfigurationSerializable {
 				break;
 			}
 
+			if (waitPeriod == MIN_WAIT_PERIOD) {
+				logger.log(Level.INFO, "{0} migrations are locked by another server, waiting.", plugin.getName());
+			}
 			try {
-				Thread.sleep(WAIT_PERIOD);
+				// Jitter, so servers waiting on the same lock don't all retry at once
+				Thread.sleep(waitPeriod / 2 + ThreadLocalRandom.current().nextLong(waitPeriod / 2 + 1));
 			} catch (InterruptedException ie) {
 				// Someone wants us to check right away.
 			}
+			waitPeriod = Math.min(waitPeriod * 2, MAX_WAIT_PERIOD);
 		}
 		throw new TimeoutException("We were unable to acquire a lock in the time allowed");
 	}
@@ -522,16 +772,480 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		return connections.getConnection();
 	}
 
+	/**
+	 * Sets up a read only replica of the database, which {@link #getReadConnection()} and the async read methods use
+	 * instead of the primary database. The replica uses the same backend, timeouts and driver properties as the
+	 * primary database. If connecting to the replica fails, reads keep going to the primary database.
+	 * 
+	 * @param user
+	 *            The SQL user to connect to the replica with
+	 * @param pass
+	 *            The password to connect with
+	 * @param host
+	 *            The host name / IP of the replica
+	 * @param port
+	 *            The port to connect to
+	 * @param database
+	 *            The name of the database on the replica
+	 * @param poolSize
+	 *            The max # of concurrent connections to the replica
+	 */
+	public void configureReadReplica(String user, String pass, String host, int port, String database, int poolSize) {
+		HikariDataSource primary = connections.getHikariDataSource();
+		if (primary == null) {
+			logger.log(Level.WARNING, "Not connecting to read replica, the primary database is unavailable");
+			return;
+		}
+		Map<String, Object> dataSourceProperties = new HashMap<>();
+		Properties properties = primary.getDataSourceProperties();
+		for (String key : properties.stringPropertyNames()) {
+			dataSourceProperties.put(key, properties.getProperty(key));
+		}
+		logger.log(Level.INFO, "Connecting to read replica {0}@{1}:{2} using {3}",
+				new Object[] { database, host, port, user });
+		ConnectionPool replica = new ConnectionPool(logger, connections.getBackend(), user, pass, host, port, database,
+				poolSize, primary.getConnectionTimeout(), primary.getIdleTimeout(), primary.getMaxLifetime(),
+				dataSourceProperties);
+		if (replica.getHikariDataSource() == null) {
+			logger.log(Level.WARNING, "Read replica is unavailable, reads will use the primary database");
+			return;
+		}
+		replica.setSlowQueryThreshold(connections.getSlowQueryThreshold());
+		ConnectionPool previous = this.readConnections;
+		this.readConnections = replica;
+		this.readReplica = new HashMap<>();
+		readReplica.put("user", user);
+		readReplica.put("password", pass);
+		readReplica.put("host", host);
+		readReplica.put("port", port);
+		readReplica.put("database", database);
+		readReplica.put("poolsize", poolSize);
+		if (previous != null) {
+			try {
+				previous.close();
+			} catch (SQLException e) {
+				logger.log(Level.WARNING, "Failed to close previous read replica pool", e);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether a read replica is configured and connected
+	 */
+	public boolean hasReadReplica() {
+		return readConnections != null;
+	}
+
+	/**
+	 * Gets a connection for queries which only read and can tolerate slightly outdated data, like statistics or
+	 * exports. This is a connection to the read replica if one is configured, otherwise or if the replica can't provide
+	 * a connection one to the primary database. Don't use it to read data which was just written, the replica may
+	 * lag behind the primary database.
+	 * 
+	 * @return A {@link java.sql.Connection} connection from the replica or primary pool
+	 * @throws SQLException
+	 *             If neither the replica nor the primary database could provide a connection
+	 */
+	public Connection getReadConnection() throws SQLException {
+		ConnectionPool replica = this.readConnections;
+		if (replica != null) {
+			try {
+				return replica.getConnection();
+			} catch (SQLException e) {
+				logger.log(Level.WARNING, "Read replica failed to provide a connection, using primary database: {0}",
+						e.getMessage());
+			}
+		}
+		return connections.getConnection();
+	}
+
+	/**
+	 * Runs the given task with a pooled connection on one of the database worker threads of this datasource. There
+	 * are as many worker threads as connections in the pool, further tasks are queued. If the queue is full, the
+	 * returned future is completed exceptionally with a {@link RejectedExecutionException}.
+	 * 
+	 * The returned future completes on the worker thread. Use {@link #getMainThreadExecutor()} to get back onto the
+	 * main thread, for example:
+	 * 
+	 * <code>
+	 *   myManagedDatasource.queryAsync("SELECT name FROM sample WHERE id = ?;", s -> s.setInt(1, id), rs -> {
+	 *   	return rs.next() ? rs.getString(1) : null;
+	 *   }).thenAcceptAsync(name -> player.sendMessage(name), myManagedDatasource.getMainThreadExecutor());
+	 * </code>
+	 * 
+	 * @param task
+	 *            Work to do with the connection, which is closed once the task is done
+	 * @return Future completed with the result of the task or any exception it threw
+	 */
+	public <T> CompletableFuture<T> executeAsync(ConnectionTask<T> task) {
+		return executeAsync(task, false);
+	}
+
+	/**
+	 * Like {@link #executeAsync(ConnectionTask)}, but the task gets a connection from {@link #getReadConnection()}, so
+	 * it runs against the read replica if one is configured.
+	 * 
+	 * @param task
+	 *            Read only work to do with the connection, which is closed once the task is done
+	 * @return Future completed with the result of the task or any exception it threw
+	 */
+	public <T> CompletableFuture<T> executeReadAsync(ConnectionTask<T> task) {
+		return executeAsync(task, true);
+	}
+
+	private <T> CompletableFuture<T> executeAsync(ConnectionTask<T> task, boolean read) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			asyncExecutor.execute(() -> {
+				try (Connection connection = read ? getReadConnection() : getConnection();) {
+					future.complete(task.run(connection));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Asynchronously runs a query, see {@link #executeAsync(ConnectionTask)}.
+	 * 
+	 * @param query
+	 *            SQL to prepare
+	 * @param setup
+	 *            Sets the parameters of the statement, may be null if there are none
+	 * @param mapper
+	 *            Converts the result set into the result of the future
+	 * @return Future completed with the mapped result
+	 */
+	public <T> CompletableFuture<T> queryAsync(String query, StatementSetup setup, ResultSetMapper<T> mapper) {
+		return executeAsync(connection -> query(connection, query, setup, mapper));
+	}
+
+	/**
+	 * Asynchronously runs a query against the read replica if one is configured, see
+	 * {@link #executeReadAsync(ConnectionTask)} and {@link #getReadConnection()}.
+	 * 
+	 * @param query
+	 *            SQL to prepare
+	 * @param setup
+	 *            Sets the parameters of the statement, may be null if there are none
+	 * @param mapper
+	 *            Converts the result set into the result of the future
+	 * @return Future completed with the mapped result
+	 */
+	public <T> CompletableFuture<T> queryReadAsync(String query, StatementSetup setup, ResultSetMapper<T> mapper) {
+		return executeReadAsync(connection -> query(connection, query, setup, mapper));
+	}
+
+	/**
+	 * Runs {@link #streamQuery(String, StatementSetup, RowHandler)} against the read replica if one is configured, on
+	 * one of the database worker threads of this datasource.
+	 * 
+	 * @return Future completed with the amount of rows handled
+	 */
+	public CompletableFuture<Long> streamReadQueryAsync(String query, StatementSetup setup, RowHandler handler) {
+		return executeReadAsync(connection -> streamQuery(connection, query, setup, handler));
+	}
+
+	private static <T> T query(Connection connection, String query, StatementSetup setup, ResultSetMapper<T> mapper)
+			throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(query);) {
+			if (setup != null) {
+				setup.setup(statement);
+			}
+			try (ResultSet set = statement.executeQuery();) {
+				return mapper.map(set);
+			}
+		}
+	}
+
+	/**
+	 * Asynchronously runs an INSERT, UPDATE, DELETE or similar statement, see {@link #executeAsync(ConnectionTask)}.
+	 * 
+	 * @param query
+	 *            SQL to prepare
+	 * @param setup
+	 *            Sets the parameters of the statement, may be null if there are none
+	 * @return Future completed with the amount of affected rows
+	 */
+	public CompletableFuture<Integer> updateAsync(String query, StatementSetup setup) {
+		return executeAsync(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(query);) {
+				if (setup != null) {
+					setup.setup(statement);
+				}
+				return statement.executeUpdate();
+			}
+		});
+	}
+
+	/**
+	 * Runs a query and hands its rows to the given handler one by one while they are read from the database, instead
+	 * of loading the whole result into memory first. Use this for loading large tables. With MySQL the rows are
+	 * streamed row by row, unless "useCursorFetch" is set in the data source properties, in which case they are
+	 * fetched from a server side cursor in chunks. Other statements can't be run on the connection while a result is
+	 * streamed, so the query runs on its own connection.
+	 * 
+	 * @param query
+	 *            SQL of the query
+	 * @param setup
+	 *            Sets the parameters of the statement, may be null
+	 * @param handler
+	 *            Called for every row of the result
+	 * @return Amount of rows handled
+	 * @throws SQLException
+	 *             If the query or the handler failed
+	 */
+	public long streamQuery(String query, StatementSetup setup, RowHandler handler) throws SQLException {
+		try (Connection connection = getConnection();) {
+			return streamQuery(connection, query, setup, handler);
+		}
+	}
+
+	/**
+	 * Runs {@link #streamQuery(String, StatementSetup, RowHandler)} on one of the database worker threads of this
+	 * datasource, so the handler is called on that thread as well.
+	 * 
+	 * @return Future completed with the amount of rows handled
+	 */
+	public CompletableFuture<Long> streamQueryAsync(String query, StatementSetup setup, RowHandler handler) {
+		return executeAsync(connection -> streamQuery(connection, query, setup, handler));
+	}
+
+	/**
+	 * Runs a query and returns its rows as lazily populated stream. Rows are only read from the database when the
+	 * stream asks for them, so a slow consumer doesn't cause rows to pile up in memory. See
+	 * {@link #streamQuery(String, StatementSetup, RowHandler)} for how rows are fetched.
+	 * 
+	 * The stream holds on to a connection until it is closed, so always use it in a try-with-resources block:
+	 * 
+	 * <code>
+	 *   try (Stream&lt;Reinforcement&gt; reinforcements = myManagedDatasource.stream("SELECT * FROM reinforcements;", null,
+	 *   		rs -&gt; new Reinforcement(rs.getInt(1), rs.getInt(2)))) {
+	 *   	reinforcements.forEach(this::register);
+	 *   }
+	 * </code>
+	 * 
+	 * SQLExceptions thrown while reading rows are rethrown wrapped in a RuntimeException.
+	 * 
+	 * @param query
+	 *            SQL of the query
+	 * @param setup
+	 *            Sets the parameters of the statement, may be null
+	 * @param mapper
+	 *            Turns the current row into an element of the stream, must not move the result set
+	 * @return Stream of the mapped rows, which has to be closed
+	 * @throws SQLException
+	 *             If running the query failed
+	 */
+	public <T> Stream<T> stream(String query, StatementSetup setup, ResultSetMapper<T> mapper) throws SQLException {
+		Connection connection = getConnection();
+		try {
+			PreparedStatement statement = prepareStreaming(connection, query);
+			if (setup != null) {
+				setup.setup(statement);
+			}
+			ResultSet resultSet = statement.executeQuery();
+			Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED) {
+
+				@Override
+				public boolean tryAdvance(Consumer<? super T> action) {
+					try {
+						if (!resultSet.next()) {
+							return false;
+						}
+						action.accept(mapper.map(resultSet));
+						return true;
+					} catch (SQLException e) {
+						throw new RuntimeException("Failed to read streamed row", e);
+					}
+				}
+			};
+			// Closing the connection closes the statement and result set as well
+			return StreamSupport.stream(rows, false).onClose(() -> {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					logger.log(Level.WARNING, "Failed to close connection of streamed query", e);
+				}
+			});
+		} catch (SQLException | RuntimeException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	private long streamQuery(Connection connection, String query, StatementSetup setup, RowHandler handler)
+			throws SQLException {
+		try (PreparedStatement statement = prepareStreaming(connection, query);) {
+			if (setup != null) {
+				setup.setup(statement);
+			}
+			long rows = 0;
+			try (ResultSet resultSet = statement.executeQuery();) {
+				while (resultSet.next()) {
+					handler.handle(resultSet);
+					rows++;
+				}
+			}
+			return rows;
+		}
+	}
+
+	private PreparedStatement prepareStreaming(Connection connection, String query) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		if (connections.getBackend() == DatabaseBackend.MYSQL && !Boolean.parseBoolean(
+				connections.getHikariDataSource().getDataSourceProperties().getProperty("useCursorFetch"))) {
+			// Connector/J only streams rows one by one with exactly this fetch size
+			statement.setFetchSize(Integer.MIN_VALUE);
+		} else {
+			statement.setFetchSize(STREAMING_FETCH_SIZE);
+		}
+		return statement;
+	}
+
+	/**
+	 * Creates a queue for writes which don't need to happen immediately, which are then executed in JDBC batches. See
+	 * {@link WriteBehindQueue} for details. The queue is drained when this datasource is closed.
+	 * 
+	 * @param maxBatchSize
+	 *            Amount of queued statements after which a flush is triggered
+	 * @param flushInterval
+	 *            Time in milliseconds after which queued statements are flushed at the latest
+	 * @return New write behind queue
+	 */
+	public WriteBehindQueue createWriteBehindQueue(int maxBatchSize, long flushInterval) {
+		WriteBehindQueue queue = new WriteBehindQueue(this, logger, plugin.getName(), maxBatchSize, flushInterval);
+		writeBehindQueues.add(queue);
+		return queue;
+	}
+
+	/**
+	 * Creates a read through cache for values stored in this database. See {@link DatabaseCache} for details. The
+	 * cache is flushed when this datasource is closed.
+	 * 
+	 * @param loader
+	 *            Loads values missing from the cache
+	 * @param writer
+	 *            Writes changed values back to the database, null for a read only cache
+	 * @param maxSize
+	 *            Maximum amount of cached values, beyond that the least recently used ones are evicted
+	 * @param expireAfterAccess
+	 *            Time in milliseconds after which values which weren't accessed are evicted
+	 * @param flushInterval
+	 *            Time in milliseconds after which changed values are written at the latest
+	 * @return New cache
+	 */
+	public <K, V> DatabaseCache<K, V> createCache(CacheLoader<K, V> loader, CacheWriter<K, V> writer, int maxSize,
+			long expireAfterAccess, long flushInterval) {
+		DatabaseCache<K, V> cache = new DatabaseCache<>(this, logger, plugin.getName(), loader, writer, maxSize,
+				expireAfterAccess, flushInterval);
+		caches.add(cache);
+		return cache;
+	}
+
+	/**
+	 * Executor running tasks on the server main thread, intended for handing results of async queries back to the
+	 * main thread via {@link CompletableFuture#thenAcceptAsync(java.util.function.Consumer, Executor)} and similar.
+	 * Tasks submitted while already on the main thread are run immediately.
+	 * 
+	 * @return Main thread executor
+	 */
+	public Executor getMainThreadExecutor() {
+		return task -> {
+			if (Bukkit.isPrimaryThread()) {
+				task.run();
+			} else {
+				Bukkit.getScheduler().runTask(plugin, task);
+			}
+		};
+	}
+
 	/**
 	 * Passthrough; closes the underlying pool. Cannot be undone.
 	 * 
+	 * All caches and write behind queues are flushed and async tasks which were already submitted are given some time
+	 * to finish first.
+	 * 
 	 * @throws SQLException
 	 *             something went horribly wrong.
 	 */
 	public void close() throws SQLException {
+		activeDatasources.remove(this);
+		for (DatabaseCache<?, ?> cache : caches) {
+			cache.close();
+		}
+		for (WriteBehindQueue queue : writeBehindQueues) {
+			queue.close();
+		}
+		postExecutor.shutdown();
+		asyncExecutor.shutdown();
+		try {
+			if (!asyncExecutor.awaitTermination(ASYNC_SHUTDOWN_WAIT, TimeUnit.MILLISECONDS)) {
+				logger.log(Level.WARNING, "Async database tasks of {0} did not finish in time, {1} were dropped",
+						new Object[] { plugin.getName(), asyncExecutor.shutdownNow().size() });
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		ConnectionPool replica = this.readConnections;
+		if (replica != null) {
+			replica.close();
+		}
 		connections.close();
 	}
 
+	/**
+	 * @return The plugin this datasource belongs to
+	 */
+	public ACivMod getPlugin() {
+		return plugin;
+	}
+
+	/**
+	 * Sets how long a query may take before it is logged as slow, see
+	 * {@link ConnectionPool#setSlowQueryThreshold(long)}.
+	 * 
+	 * @param slowQueryThreshold
+	 *            Threshold in milliseconds, 0 or less to disable
+	 */
+	public void setSlowQueryThreshold(long slowQueryThreshold) {
+		connections.setSlowQueryThreshold(slowQueryThreshold);
+		ConnectionPool replica = this.readConnections;
+		if (replica != null) {
+			replica.setSlowQueryThreshold(slowQueryThreshold);
+		}
+	}
+
+	/**
+	 * @return Single line summary of the connection pool state and its latencies
+	 */
+	public String getStatisticsSummary() {
+		ConnectionPool replica = this.readConnections;
+		if (replica == null) {
+			return connections.getStatisticsSummary();
+		}
+		return connections.getStatisticsSummary() + " || replica: " + replica.getStatisticsSummary();
+	}
+
+	/**
+	 * Logs the current statistics summary of this datasource to the log of its plugin
+	 */
+	public void logStatistics() {
+		logger.log(Level.INFO, "Database pool: {0}", getStatisticsSummary());
+	}
+
+	/**
+	 * @return All datasources which were created and not closed yet
+	 */
+	public static Collection<ManagedDatasource> getActiveDatasources() {
+		return Collections.unmodifiableSet(activeDatasources);
+	}
+
 	private static class Migration {
 		public LinkedList<String> migrations;
 		public boolean ignoreErrors;
@@ -550,17 +1264,32 @@ public class ManagedDatasource implements ConfigurationSerializable {
 		data.put("plugin", plugin.getName());
 		data.put("user", connections.getHikariDataSource().getUsername());
 		data.put("password", connections.getHikariDataSource().getPassword());
-		String jdbcURL = connections.getHikariDataSource().getJdbcUrl();
-		// remove "jdbc:mysql://" from the start of the url
-		jdbcURL = jdbcURL.substring(13, jdbcURL.length());
-		String[] splitByColon = jdbcURL.split(":");
-		data.put("host", splitByColon[0]);
-		data.put("port", Integer.parseInt(splitByColon[1].split("/")[0]));
-		data.put("database", splitByColon[1].split("/")[1]);
-		data.put("poolsize", connections.getHikariDataSource().getMaximumPoolSize());
+		if (connections.getBackend() != DatabaseBackend.MYSQL) {
+			data.put("backend", connections.getBackend().name());
+		}
+		data.put("host", host);
+		data.put("port", port);
+		data.put("database", database);
+		data.put("poolsize", connections.getMaximumPoolSize());
+		if (connections.isShared()) {
+			data.put("sharedPool", true);
+			data.put("sharedPoolSize", connections.getHikariDataSource().getMaximumPoolSize());
+		}
 		data.put("connectionTimeout", connections.getHikariDataSource().getConnectionTimeout());
 		data.put("idleTimeout", connections.getHikariDataSource().getIdleTimeout());
 		data.put("maxLifetime", connections.getHikariDataSource().getMaxLifetime());
+		data.put("slowQueryThreshold", connections.getSlowQueryThreshold());
+		Map<String, Object> dataSourceProperties = new HashMap<>();
+		Properties properties = connections.getHikariDataSource().getDataSourceProperties();
+		for (String key : properties.stringPropertyNames()) {
+			dataSourceProperties.put(key, properties.getProperty(key));
+		}
+		if (!dataSourceProperties.isEmpty()) {
+			data.put("dataSourceProperties", dataSourceProperties);
+		}
+		if (readReplica != null) {
+			data.put("readReplica", new HashMap<>(readReplica));
+		}
 		return data;
 	}
 
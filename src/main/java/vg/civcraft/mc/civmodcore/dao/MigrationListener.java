@@ -0,0 +1,20 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+/**
+ * Receives progress updates while a {@link ManagedDatasource} applies its
+ * migrations, see {@link ManagedDatasource#updateDatabaseAsync(MigrationListener)}.
+ * Called on the thread running the migrations.
+ */
+@FunctionalInterface
+public interface MigrationListener {
+
+	/**
+	 * Called after each migration was applied successfully.
+	 *
+	 * @param migration ID of the migration which was just applied
+	 * @param completed Amount of migrations applied so far in this update
+	 * @param total     Amount of migrations this update has to apply
+	 */
+	void migrationApplied(int migration, int completed, int total);
+
+}
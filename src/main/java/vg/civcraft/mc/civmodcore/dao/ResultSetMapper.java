@@ -0,0 +1,17 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the result set of a query into whatever object the caller needs. The
+ * result set is closed once the mapper returns.
+ *
+ * @param <T> Type of the result
+ */
+@FunctionalInterface
+public interface ResultSetMapper<T> {
+
+	T map(ResultSet resultSet) throws SQLException;
+
+}
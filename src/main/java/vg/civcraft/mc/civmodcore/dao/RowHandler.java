@@ -0,0 +1,16 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Handles a single row of a streamed query, see
+ * {@link ManagedDatasource#streamQuery(String, StatementSetup, RowHandler)}.
+ * The result set is positioned on the row to handle and must not be moved.
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+	void handle(ResultSet row) throws SQLException;
+
+}
@@ -0,0 +1,14 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Sets the parameters of a prepared statement before it is executed
+ */
+@FunctionalInterface
+public interface StatementSetup {
+
+	void setup(PreparedStatement statement) throws SQLException;
+
+}
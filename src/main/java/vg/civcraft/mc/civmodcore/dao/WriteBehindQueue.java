@@ -0,0 +1,316 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects many small write statements and executes them later in JDBC batches instead of one round trip per
+ * statement. Statements are grouped by their SQL text, every group is executed as a single batch in its own
+ * transaction.
+ *
+ * A flush happens once the amount of queued statements reaches the maximum batch size, every flush interval and when
+ * the queue is closed. Flushes run one after another on a thread owned by this queue, so statements with the same SQL
+ * are always executed in the order they were queued. Statements with different SQL text may be reordered relative to
+ * each other, so only queue writes which don't depend on each other's order.
+ *
+ * If the database rejects a batch while the connection is fine, for example because of a constraint violation, its
+ * statements are written one by one and only the rejected ones are discarded. If the connection fails instead, the
+ * statements not written yet are queued again ahead of everything queued since and retried later, waiting twice as
+ * long after every failure. They are only discarded once {@link #MAX_FLUSH_ATTEMPTS} flushes in a row failed.
+ *
+ * Obtain instances through {@link ManagedDatasource#createWriteBehindQueue(int, long)}, they are drained when the
+ * datasource is closed.
+ */
+public class WriteBehindQueue {
+
+	private static final long SHUTDOWN_WAIT = 60000l;
+
+	private static final long MAX_RETRY_DELAY = 60000l;
+
+	// Seconds to wait for a connection to confirm it's still usable after a failed write
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	/**
+	 * Amount of flushes in a row which may fail because of the connection before the statements queued are discarded
+	 */
+	public static final int MAX_FLUSH_ATTEMPTS = 10;
+
+	private final ManagedDatasource datasource;
+	private final Logger logger;
+	private final int maxBatchSize;
+	private final long flushInterval;
+	private final ScheduledExecutorService flusher;
+
+	private final Object lock = new Object();
+	private Map<String, List<StatementSetup>> pending;
+	private int pendingCount;
+	private int inFlightCount;
+	private int failedFlushes;
+	// No flush is attempted before this time after a failed one
+	private long retryAt;
+	private boolean flushRequested;
+	private boolean closed;
+
+	WriteBehindQueue(ManagedDatasource datasource, Logger logger, String name, int maxBatchSize, long flushInterval) {
+		if (maxBatchSize < 1 || flushInterval < 1) {
+			throw new IllegalArgumentException("maxBatchSize < 1 || flushInterval < 1");
+		}
+		this.datasource = datasource;
+		this.logger = logger;
+		this.maxBatchSize = maxBatchSize;
+		this.flushInterval = flushInterval;
+		this.pending = new LinkedHashMap<>();
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name + " Write Behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues a statement to be executed with the next flush.
+	 *
+	 * @param query
+	 *            SQL of the statement, statements with identical SQL are batched together
+	 * @param setup
+	 *            Sets the parameters of the statement. Called on the flushing thread, so it must only capture values
+	 *            which don't change anymore
+	 */
+	public void queue(String query, StatementSetup setup) {
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("Write behind queue was already closed");
+			}
+			pending.computeIfAbsent(query, q -> new ArrayList<>()).add(setup);
+			++pendingCount;
+			// While backing off after a failed flush, the periodic flush picks up the statements once it's time
+			if (pendingCount >= maxBatchSize && !flushRequested && failedFlushes == 0) {
+				flushRequested = true;
+				flusher.execute(this::flush);
+			}
+		}
+	}
+
+	/**
+	 * @return Amount of statements currently waiting for the next flush
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pendingCount;
+		}
+	}
+
+	/**
+	 * Stops accepting new statements, executes everything still queued and waits for it to finish. Failed flushes are
+	 * retried once their back off passed until either everything was written or the statements were discarded.
+	 */
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		flusher.execute(() -> {
+			while (getPendingCount() > 0) {
+				long delay;
+				synchronized (lock) {
+					delay = retryAt - System.currentTimeMillis();
+				}
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				flush();
+			}
+		});
+		flusher.shutdown();
+		try {
+			if (!flusher.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS)) {
+				int lost;
+				synchronized (lock) {
+					lost = pendingCount + inFlightCount;
+				}
+				logger.log(Level.SEVERE, "Write behind queue did not finish flushing in time, {0} statements lost",
+						lost);
+				flusher.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flush() {
+		Map<String, List<StatementSetup>> toWrite;
+		synchronized (lock) {
+			flushRequested = false;
+			if (pendingCount == 0 || System.currentTimeMillis() < retryAt) {
+				return;
+			}
+			toWrite = pending;
+			inFlightCount = pendingCount;
+			pending = new LinkedHashMap<>();
+			pendingCount = 0;
+		}
+		try (Connection connection = datasource.getConnection();) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try {
+				Iterator<Map.Entry<String, List<StatementSetup>>> groups = toWrite.entrySet().iterator();
+				while (groups.hasNext()) {
+					Map.Entry<String, List<StatementSetup>> group = groups.next();
+					writeGroup(connection, group.getKey(), group.getValue());
+					groups.remove();
+				}
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+			synchronized (lock) {
+				failedFlushes = 0;
+				retryAt = 0;
+				inFlightCount = 0;
+			}
+		} catch (SQLException | RuntimeException e) {
+			// Groups which were written are gone from the map, everything left in it wasn't written
+			int count = 0;
+			for (List<StatementSetup> group : toWrite.values()) {
+				count += group.size();
+			}
+			boolean discard;
+			long delay = 0;
+			synchronized (lock) {
+				inFlightCount = 0;
+				discard = ++failedFlushes >= MAX_FLUSH_ATTEMPTS;
+				if (discard) {
+					failedFlushes = 0;
+					retryAt = 0;
+				} else {
+					delay = Math.min(flushInterval << (failedFlushes - 1), MAX_RETRY_DELAY);
+					retryAt = System.currentTimeMillis() + delay;
+					requeue(toWrite, count);
+				}
+			}
+			if (discard) {
+				logger.log(Level.SEVERE, "Failed to flush " + count + " queued statements " + MAX_FLUSH_ATTEMPTS
+						+ " times in a row, they were discarded", e);
+			} else {
+				logger.log(Level.SEVERE,
+						"Failed to flush " + count + " queued statements, retrying in " + delay + "ms", e);
+			}
+		}
+	}
+
+	// Writes all statements of one group in a single batch and transaction. Throws if the connection failed, in which
+	// case the statements not written yet are left in the list
+	private void writeGroup(Connection connection, String query, List<StatementSetup> setups) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(query);) {
+			for (StatementSetup setup : setups) {
+				setup.setup(statement);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			connection.commit();
+			setups.clear();
+			return;
+		} catch (SQLException | RuntimeException e) {
+			rollback(connection, e);
+			if (!isRejected(connection, e)) {
+				throw e;
+			}
+		}
+		// At least one statement of the batch is bad, so write them one by one to only discard those
+		int rejected = 0;
+		Exception firstRejection = null;
+		int written = 0;
+		try {
+			for (; written < setups.size(); written++) {
+				try (PreparedStatement statement = connection.prepareStatement(query);) {
+					setups.get(written).setup(statement);
+					statement.execute();
+					connection.commit();
+				} catch (SQLException | RuntimeException e) {
+					rollback(connection, e);
+					if (!isRejected(connection, e)) {
+						throw e;
+					}
+					++rejected;
+					if (firstRejection == null) {
+						firstRejection = e;
+					}
+				}
+			}
+		} finally {
+			setups.subList(0, written).clear();
+			if (rejected > 0) {
+				logger.log(Level.SEVERE, "Database rejected " + rejected + " queued statements of \"" + query
+						+ "\", they were discarded", firstRejection);
+			}
+		}
+	}
+
+	// Whether a failed write was caused by the statements themselves instead of the connection, so retrying them
+	// later won't help
+	private static boolean isRejected(Connection connection, Exception failure) {
+		if (failure instanceof RuntimeException) {
+			return true;
+		}
+		if (isTransient(failure)) {
+			return false;
+		}
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	// Problems which may go away on their own, like deadlocks or timeouts
+	private static boolean isTransient(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (cause instanceof SQLException && ((SQLException) cause).getNextException() != null
+					&& isTransient(((SQLException) cause).getNextException())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void rollback(Connection connection, Exception failure) {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	// Must be called while holding the lock
+	private void requeue(Map<String, List<StatementSetup>> failed, int count) {
+		// Put the failed statements ahead of everything queued since, so statements with the same SQL keep their order
+		for (Map.Entry<String, List<StatementSetup>> entry : pending.entrySet()) {
+			failed.computeIfAbsent(entry.getKey(), q -> new ArrayList<>()).addAll(entry.getValue());
+		}
+		pending = failed;
+		pendingCount += count;
+	}
+
+}
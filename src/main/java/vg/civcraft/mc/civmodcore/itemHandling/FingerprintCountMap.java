@@ -0,0 +1,350 @@
+package vg.civcraft.mc.civmodcore.itemHandling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+import org.bukkit.Material;
+
+/**
+ * Map from item fingerprints to primitive int amounts, stored in an open addressing hash table with parallel key and
+ * value arrays instead of boxing every amount. Backs {@link ItemMap}.
+ *
+ * Entries may hold any amount including zero, a key being present is independent of its amount. Slots can be
+ * iterated directly through {@link #capacity()}, {@link #keyAt(int)} and {@link #valueAt(int)}, but entries must not
+ * be added or removed while doing so.
+ *
+ * Once a map holds many distinct items, it additionally keeps the keys grouped by material, so lookups for a single
+ * material only touch the matching keys instead of the whole table.
+ */
+class FingerprintCountMap {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	// Below this many keys scanning the table is about as fast as the index and an EnumMap isn't worth allocating
+	private static final int INDEX_THRESHOLD = 32;
+
+	private ItemFingerprint[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	// Keys grouped by material, null until the map first grows beyond INDEX_THRESHOLD keys
+	private EnumMap<Material, List<ItemFingerprint>> byMaterial;
+
+	FingerprintCountMap() {
+		this(INITIAL_CAPACITY);
+	}
+
+	FingerprintCountMap(int expectedSize) {
+		int capacity = tableSizeFor(expectedSize);
+		this.keys = new ItemFingerprint[capacity];
+		this.values = new int[capacity];
+	}
+
+	FingerprintCountMap(FingerprintCountMap other) {
+		this.keys = other.keys.clone();
+		this.values = other.values.clone();
+		this.size = other.size;
+		if (other.byMaterial != null) {
+			this.byMaterial = new EnumMap<>(Material.class);
+			for (Map.Entry<Material, List<ItemFingerprint>> entry : other.byMaterial.entrySet()) {
+				this.byMaterial.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean containsKey(ItemFingerprint key) {
+		return keys[findSlot(keys, key)] != null;
+	}
+
+	/**
+	 * @param key
+	 *            Key to look up
+	 * @return Amount stored for the key or 0 if it isn't in this map
+	 */
+	int get(ItemFingerprint key) {
+		int index = findSlot(keys, key);
+		return keys[index] == null ? 0 : values[index];
+	}
+
+	void put(ItemFingerprint key, int value) {
+		int index = findSlot(keys, key);
+		if (keys[index] != null) {
+			values[index] = value;
+			return;
+		}
+		insert(index, key, value);
+	}
+
+	/**
+	 * Adds to the amount stored for a key, inserting the key if it isn't in this map yet
+	 *
+	 * @param key
+	 *            Key to add to
+	 * @param delta
+	 *            Amount to add
+	 * @return New amount of the key
+	 */
+	int add(ItemFingerprint key, int delta) {
+		int index = findSlot(keys, key);
+		if (keys[index] != null) {
+			return values[index] += delta;
+		}
+		insert(index, key, delta);
+		return delta;
+	}
+
+	/**
+	 * Removes a key from this map
+	 *
+	 * @param key
+	 *            Key to remove
+	 * @return True if the key was in this map
+	 */
+	boolean remove(ItemFingerprint key) {
+		int index = findSlot(keys, key);
+		if (keys[index] == null) {
+			return false;
+		}
+		// Shift following entries of the probe sequence back, so lookups don't stop at the gap we leave
+		int mask = keys.length - 1;
+		int gap = index;
+		int current = index;
+		while (true) {
+			current = (current + 1) & mask;
+			ItemFingerprint other = keys[current];
+			if (other == null) {
+				break;
+			}
+			int ideal = hash(other) & mask;
+			if (((current - ideal) & mask) >= ((current - gap) & mask)) {
+				keys[gap] = other;
+				values[gap] = values[current];
+				gap = current;
+			}
+		}
+		keys[gap] = null;
+		values[gap] = 0;
+		--size;
+		if (byMaterial != null) {
+			List<ItemFingerprint> sameMaterial = byMaterial.get(key.getMaterial());
+			sameMaterial.remove(key);
+			if (sameMaterial.isEmpty()) {
+				byMaterial.remove(key.getMaterial());
+			}
+		}
+		return true;
+	}
+
+	void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(values, 0);
+		size = 0;
+		byMaterial = null;
+	}
+
+	/**
+	 * @param material
+	 *            Material to look for
+	 * @return True if at least one key of the given material is in this map
+	 */
+	boolean containsMaterial(Material material) {
+		if (byMaterial != null) {
+			return byMaterial.containsKey(material);
+		}
+		for (ItemFingerprint key : keys) {
+			if (key != null && key.getMaterial() == material) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Passes every key of the given material and its amount to the given consumer
+	 *
+	 * @param material
+	 *            Material of the keys to pass
+	 * @param consumer
+	 *            Consumer to pass entries to, must not add or remove keys of this map
+	 */
+	void forEach(Material material, ObjIntConsumer<ItemFingerprint> consumer) {
+		if (byMaterial == null) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null && keys[i].getMaterial() == material) {
+					consumer.accept(keys[i], values[i]);
+				}
+			}
+			return;
+		}
+		List<ItemFingerprint> sameMaterial = byMaterial.get(material);
+		if (sameMaterial == null) {
+			return;
+		}
+		for (ItemFingerprint key : sameMaterial) {
+			consumer.accept(key, values[findSlot(keys, key)]);
+		}
+	}
+
+	/**
+	 * @return Sum of all amounts in this map
+	 */
+	int sum() {
+		int sum = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				sum += values[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return Amount of slots, valid slot indices range from 0 to this exclusive
+	 */
+	int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @param slot
+	 *            Slot index
+	 * @return Key in the given slot or null if the slot is empty
+	 */
+	ItemFingerprint keyAt(int slot) {
+		return keys[slot];
+	}
+
+	int valueAt(int slot) {
+		return values[slot];
+	}
+
+	void setValueAt(int slot, int value) {
+		values[slot] = value;
+	}
+
+	/**
+	 * Passes every key and its amount to the given consumer
+	 *
+	 * @param consumer
+	 *            Consumer to pass entries to, must not add or remove keys of this map
+	 */
+	void forEach(ObjIntConsumer<ItemFingerprint> consumer) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof FingerprintCountMap)) {
+			return false;
+		}
+		FingerprintCountMap other = (FingerprintCountMap) o;
+		if (other.size != size) {
+			return false;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null) {
+				continue;
+			}
+			int index = findSlot(other.keys, keys[i]);
+			if (other.keys[index] == null || other.values[index] != values[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as the hash code of a {@link java.util.HashMap} with the same content would be
+	 */
+	@Override
+	public int hashCode() {
+		int result = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				result += keys[i].hashCode() ^ values[i];
+			}
+		}
+		return result;
+	}
+
+	private void insert(int index, ItemFingerprint key, int value) {
+		keys[index] = key;
+		values[index] = value;
+		++size;
+		if (byMaterial != null) {
+			byMaterial.computeIfAbsent(key.getMaterial(), m -> new ArrayList<>()).add(key);
+		} else if (size > INDEX_THRESHOLD) {
+			byMaterial = new EnumMap<>(Material.class);
+			for (ItemFingerprint existing : keys) {
+				if (existing != null) {
+					byMaterial.computeIfAbsent(existing.getMaterial(), m -> new ArrayList<>()).add(existing);
+				}
+			}
+		}
+		if (size > keys.length * LOAD_FACTOR) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	private void rehash(int capacity) {
+		ItemFingerprint[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new ItemFingerprint[capacity];
+		values = new int[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int index = findSlot(keys, oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	// Slot containing the key or the free slot it would be inserted into
+	private static int findSlot(ItemFingerprint[] table, ItemFingerprint key) {
+		int mask = table.length - 1;
+		int index = hash(key) & mask;
+		while (table[index] != null && !table[index].equals(key)) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private static int hash(ItemFingerprint key) {
+		// Spread the higher bits, as only the lowest ones select the slot
+		int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSizeFor(int expectedSize) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
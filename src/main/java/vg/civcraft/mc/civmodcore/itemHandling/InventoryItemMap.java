@@ -0,0 +1,193 @@
+package vg.civcraft.mc.civmodcore.itemHandling;
+
+import java.util.Objects;
+import java.util.function.ObjIntConsumer;
+
+import org.bukkit.craftbukkit.v1_13_R2.inventory.CraftItemStack;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Content of a single inventory, which is kept in sync with it incrementally instead of being rebuilt like
+ * {@link ItemMap#ItemMap(Inventory)} does. The fingerprint and amount of every slot are remembered, so only slots whose
+ * content actually changed touch the counted content.
+ *
+ * Changes are picked up either through {@link #slotChanged(int)}, when the changed slot is known, for example from an
+ * inventory event (once the event has been applied, so usually a tick later), or through {@link #refresh()}, which
+ * compares every slot against the remembered content. For this every slot keeps a copy of the stack it held, which is
+ * only taken when the slot changed. Comparing the CraftItemStacks handed out by server inventories against these
+ * copies compares their item tags directly, so unchanged slots cost neither clones nor item meta copies. Other
+ * ItemStack implementations may copy their meta while being compared.
+ *
+ * This mirror can only be changed through its inventory. Checks like {@link #contains(ItemMap)} can be run against it
+ * repeatedly without copying anything, {@link #asItemMap()} gives a copy of the content for everything else.
+ */
+public class InventoryItemMap {
+
+	private final Inventory inventory;
+
+	private final ItemMap content;
+
+	private final ItemStack[] slotStacks;
+
+	private final ItemFingerprint[] slotItems;
+
+	private final int[] slotAmounts;
+
+	/**
+	 * Creates a mirror of the given inventory, which is filled with the current content of the inventory
+	 *
+	 * @param inventory
+	 *            Inventory to mirror
+	 */
+	public InventoryItemMap(Inventory inventory) {
+		this.inventory = inventory;
+		this.content = new ItemMap();
+		this.slotStacks = new ItemStack[inventory.getSize()];
+		this.slotItems = new ItemFingerprint[slotStacks.length];
+		this.slotAmounts = new int[slotStacks.length];
+		refresh();
+	}
+
+	/**
+	 * @return Inventory mirrored by this map
+	 */
+	public Inventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Updates this map with the current content of a single slot of the inventory
+	 *
+	 * @param slot
+	 *            Slot which changed
+	 * @return True if the content of the slot differed from the one known before, false if nothing changed
+	 */
+	public boolean slotChanged(int slot) {
+		ItemStack is = inventory.getItem(slot);
+		ItemStack known = slotStacks[slot];
+		if (known != null && is != null && is.isSimilar(known)) {
+			// Still the same item, at most its amount changed
+			int amount = is.getAmount();
+			if (amount == slotAmounts[slot]) {
+				return false;
+			}
+			content.adjustAmount(slotItems[slot], amount - slotAmounts[slot]);
+			slotAmounts[slot] = amount;
+			return true;
+		}
+		if (known == null && is == null) {
+			return false;
+		}
+		ItemFingerprint fingerprint = ItemFingerprint.of(is);
+		slotStacks[slot] = fingerprint == null ? null : CraftItemStack.asCraftCopy(is);
+		int amount = fingerprint == null ? 0 : is.getAmount();
+		ItemFingerprint previous = slotItems[slot];
+		if (amount == slotAmounts[slot] && Objects.equals(fingerprint, previous)) {
+			return false;
+		}
+		if (previous != null) {
+			content.adjustAmount(previous, -slotAmounts[slot]);
+		}
+		if (fingerprint != null) {
+			content.adjustAmount(fingerprint, amount);
+		}
+		slotItems[slot] = fingerprint;
+		slotAmounts[slot] = amount;
+		return true;
+	}
+
+	/**
+	 * Compares every slot of the inventory against its known content and updates this map for all slots which
+	 * changed. Use this if it's not known which slots changed
+	 *
+	 * @return Amount of slots which changed
+	 */
+	public int refresh() {
+		int changed = 0;
+		for (int slot = 0; slot < slotStacks.length; slot++) {
+			if (slotChanged(slot)) {
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Checks whether the given items are completly contained in the inventory, see
+	 * {@link ItemMap#isContainedIn(ItemMap)}
+	 *
+	 * @param items
+	 *            Items to look for
+	 * @return True if the inventory contains at least the given items
+	 */
+	public boolean contains(ItemMap items) {
+		return items.isContainedIn(content);
+	}
+
+	/**
+	 * Checks how often the given items could be removed from the inventory, see
+	 * {@link ItemMap#getMultiplesContainedIn(ItemMap)}
+	 *
+	 * @param items
+	 *            Items to look for
+	 * @return How often the given items are contained in the inventory or Integer.MAX_VALUE if they are empty
+	 */
+	public int getMultiplesOf(ItemMap items) {
+		return items.getMultiplesContainedIn(content);
+	}
+
+	/**
+	 * Gets how many items of the given stack are in the inventory, see {@link ItemMap#getAmount(ItemStack)}
+	 *
+	 * @param is
+	 *            ItemStack to search for
+	 * @return Amount of the given item in the inventory
+	 */
+	public int getAmount(ItemStack is) {
+		return content.getAmount(is);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            Item to search for
+	 * @return Amount of exactly the given item in the inventory
+	 */
+	public int getExactAmount(ItemFingerprint fingerprint) {
+		return content.getExactAmount(fingerprint);
+	}
+
+	/**
+	 * @return How many items are in the inventory total
+	 */
+	public int getTotalItemAmount() {
+		return content.getTotalItemAmount();
+	}
+
+	/**
+	 * @return How many unique items are in the inventory
+	 */
+	public int getTotalUniqueItemAmount() {
+		return content.getTotalUniqueItemAmount();
+	}
+
+	/**
+	 * Passes every item in the inventory and its amount to the given consumer, see
+	 * {@link ItemMap#forEach(ObjIntConsumer)}
+	 *
+	 * @param consumer
+	 *            Consumer to pass each item and its amount to, must not change the inventory
+	 */
+	public void forEach(ObjIntConsumer<ItemFingerprint> consumer) {
+		content.forEach(consumer);
+	}
+
+	/**
+	 * @return New ItemMap with the current content of the inventory, which isn't updated anymore and may be modified
+	 *         freely
+	 */
+	public ItemMap asItemMap() {
+		return content.clone();
+	}
+
+}
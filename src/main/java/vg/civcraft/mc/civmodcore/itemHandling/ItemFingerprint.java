@@ -0,0 +1,182 @@
+package vg.civcraft.mc.civmodcore.itemHandling;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.v1_13_R2.inventory.CraftItemStack;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Immutable identity of an item as used by {@link ItemMap}, which ignores the amount and the repair cost of a stack.
+ * Turning an ItemStack into this form requires cloning it and a round trip through NMS, so fingerprints are interned:
+ * looking up the fingerprint of a stack which is similar to one seen before only costs a hash lookup.
+ *
+ * Two fingerprints are equal if their canonical stacks are equal, their hash code is the one of the canonical stack.
+ */
+public final class ItemFingerprint {
+
+	private static final Logger log = Bukkit.getLogger();
+
+	// Items with unique meta would fill up the intern table otherwise, so the least recently used entries are evicted
+	// once it grows beyond this
+	private static final int MAX_INTERNED = 8192;
+
+	private static final Map<SimilarityKey, ItemFingerprint> interned = Collections
+			.synchronizedMap(new LinkedHashMap<SimilarityKey, ItemFingerprint>(MAX_INTERNED * 2, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<SimilarityKey, ItemFingerprint> eldest) {
+					return size() > MAX_INTERNED;
+				}
+			});
+
+	private final ItemStack stack;
+
+	private final Material material;
+
+	private final int hash;
+
+	private ItemFingerprint(ItemStack stack) {
+		this.stack = stack;
+		this.material = stack.getType();
+		this.hash = stack.hashCode();
+	}
+
+	/**
+	 * Gets the fingerprint of the given stack. The stack itself is neither modified nor kept.
+	 *
+	 * @param is
+	 *            Stack to get the fingerprint for
+	 * @return Fingerprint of the stack or null if the stack is null or its item can't be held in inventories
+	 */
+	public static ItemFingerprint of(ItemStack is) {
+		if (is == null) {
+			return null;
+		}
+		ItemFingerprint fingerprint = interned.get(new SimilarityKey(is));
+		if (fingerprint != null) {
+			return fingerprint;
+		}
+		ItemStack canonical = createMapConformCopy(is);
+		if (canonical == null) {
+			return null;
+		}
+		fingerprint = new ItemFingerprint(canonical);
+		// The key has to be a private copy, the given stack may be changed later on
+		ItemStack keyStack = is.clone();
+		keyStack.setAmount(1);
+		ItemFingerprint existing = interned.putIfAbsent(new SimilarityKey(keyStack), fingerprint);
+		return existing != null ? existing : fingerprint;
+	}
+
+	/**
+	 * @return Material of the item
+	 */
+	public Material getMaterial() {
+		return material;
+	}
+
+	/**
+	 * Gets the canonical stack of this fingerprint, which has an amount of one. This instance is shared, so it must not
+	 * be modified and never be handed out, use {@link #toItemStack(int)} to get a stack which can be changed.
+	 *
+	 * @return Canonical stack
+	 */
+	ItemStack getStack() {
+		return stack;
+	}
+
+	/**
+	 * @param amount
+	 *            Amount of the created stack
+	 * @return New stack of this item with the given amount
+	 */
+	public ItemStack toItemStack(int amount) {
+		ItemStack copy = stack.clone();
+		copy.setAmount(amount);
+		return copy;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ItemFingerprint)) {
+			return false;
+		}
+		ItemFingerprint other = (ItemFingerprint) o;
+		return hash == other.hash && stack.equals(other.stack);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return stack.toString();
+	}
+
+	/**
+	 * Utility to not mess with stacks directly taken from inventories
+	 *
+	 * @param is
+	 *            Template ItemStack
+	 * @return Cloned ItemStack with its amount set to 1 and its repair cost reset
+	 */
+	private static ItemStack createMapConformCopy(ItemStack is) {
+		ItemStack copy = is.clone();
+		copy.setAmount(1);
+		net.minecraft.server.v1_13_R2.ItemStack s = CraftItemStack.asNMSCopy(copy);
+		if (s == null) {
+			log.info("Attempted to create map conform copy of " + copy.toString()
+					+ ", but couldn't because this item can't be held in inventories since Minecraft 1.8");
+			return null;
+		}
+		s.setRepairCost(0);
+		copy = CraftItemStack.asBukkitCopy(s);
+		return copy;
+	}
+
+	/**
+	 * Lookup key of the intern table, two keys are equal if their stacks are similar, ignoring the amount
+	 */
+	private static final class SimilarityKey {
+
+		private final ItemStack stack;
+
+		private final int hash;
+
+		private SimilarityKey(ItemStack stack) {
+			this.stack = stack;
+			int h = stack.getType().hashCode();
+			h = h * 31 + (stack.getDurability() & 0xffff);
+			// Most stacks have no meta, which saves creating one just to hash it
+			h = h * 31 + (stack.hasItemMeta() ? stack.getItemMeta().hashCode() : 0);
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SimilarityKey)) {
+				return false;
+			}
+			SimilarityKey other = (SimilarityKey) o;
+			return hash == other.hash && stack.isSimilar(other.stack);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -2,10 +2,10 @@ package vg.civcraft.mc.civmodcore.itemHandling;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.ObjIntConsumer;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 
-import com.google.common.collect.Lists;
 import net.minecraft.server.v1_13_R2.NBTTagCompound;
 import net.minecraft.server.v1_13_R2.NBTTagList;
 import org.bukkit.Bukkit;
@@ -26,12 +26,16 @@ import vg.civcraft.mc.civmodcore.itemHandling.itemExpression.ItemExpression;
  * compared to a map containing negative values. Additionally this implementation allows durability "wild cards", if you
  * specify -1 as durability it will count as any given durability. When working with multiple ItemMaps this will only
  * work if all methods are executed on the instance containing items with a durability of -1.
+ *
+ * Internally stacks are identified by their {@link ItemFingerprint}, so adding or looking up a stack similar to one
+ * seen before doesn't require cloning it. Amounts are stored as primitive ints, use {@link #forEach(ObjIntConsumer)}
+ * to look at the content without copying it.
  */
 public class ItemMap {
 
 	private static final Logger log = Bukkit.getLogger();
 
-	private HashMap<ItemStack, Integer> items;
+	private FingerprintCountMap items;
 
 	private int totalItems;
 
@@ -39,7 +43,7 @@ public class ItemMap {
 	 * Empty constructor to create empty item map
 	 */
 	public ItemMap() {
-		items = new HashMap<>();
+		items = new FingerprintCountMap();
 		totalItems = 0;
 	}
 
@@ -51,6 +55,7 @@ public class ItemMap {
 	 *            Inventory to base the item map on
 	 */
 	public ItemMap(Inventory inv) {
+		items = new FingerprintCountMap();
 		totalItems = 0;
 		update(inv);
 	}
@@ -62,7 +67,7 @@ public class ItemMap {
 	 *            ItemStack to start with
 	 */
 	public ItemMap(ItemStack is) {
-		items = new HashMap<>();
+		items = new FingerprintCountMap();
 		totalItems = 0;
 		addItemStack(is);
 	}
@@ -74,7 +79,7 @@ public class ItemMap {
 	 *            Stacks to add to the map
 	 */
 	public ItemMap(Collection<ItemStack> stacks) {
-		items = new HashMap<>();
+		items = new FingerprintCountMap();
 		addAll(stacks);
 	}
 
@@ -88,20 +93,40 @@ public class ItemMap {
 	 */
 	public void addItemStack(ItemStack input) {
 		if (input != null) {
-			// log().info("Adding {0} as ItemStack", input.toString());
-			ItemStack is = createMapConformCopy(input);
-			// log().info("  Conform Copy: {0}", is.toString());
-			if (is == null) {
-				return;
-			}
-			Integer i;
-			if ((i = items.get(is)) != null) {
-				items.put(is, i + input.getAmount());
-			} else {
-				items.put(is, input.getAmount());
-			}
-			totalItems += input.getAmount();
+			addItemAmount(ItemFingerprint.of(input), input.getAmount());
+		}
+	}
+
+	/**
+	 * Adds the given amount of the item identified by the given fingerprint to this map
+	 *
+	 * @param fingerprint
+	 *            Item to add, nothing is added if this is null
+	 * @param amount
+	 *            Amount to add
+	 */
+	public void addItemAmount(ItemFingerprint fingerprint, int amount) {
+		if (fingerprint == null) {
+			return;
 		}
+		items.add(fingerprint, amount);
+		totalItems += amount;
+	}
+
+	/**
+	 * Changes the amount of the given item by the given delta, dropping its entry once nothing is left. Unlike the
+	 * public methods this keeps the total item amount exact, which {@link InventoryItemMap} relies on
+	 *
+	 * @param fingerprint
+	 *            Item to change
+	 * @param delta
+	 *            Amount to add, negative to remove
+	 */
+	void adjustAmount(ItemFingerprint fingerprint, int delta) {
+		if (items.add(fingerprint, delta) == 0) {
+			items.remove(fingerprint);
+		}
+		totalItems += delta;
 	}
 
 	/**
@@ -113,17 +138,20 @@ public class ItemMap {
 	 *            ItemStack to remove
 	 */
 	public void removeItemStack(ItemStack input) {
-		ItemStack is = createMapConformCopy(input);
+		ItemFingerprint is = ItemFingerprint.of(input);
 		if (is == null) {
 			return;
 		}
-		Integer value = items.get(is);
-		if (value != null) {
-			int newVal = value - input.getAmount();
+		removeItemAmount(is, input.getAmount());
+	}
+
+	private void removeItemAmount(ItemFingerprint fingerprint, int amount) {
+		if (items.containsKey(fingerprint)) {
+			int newVal = items.get(fingerprint) - amount;
 			if (newVal > 0) {
-				items.put(is, newVal);
+				items.put(fingerprint, newVal);
 			} else {
-				items.remove(is);
+				items.remove(fingerprint);
 			}
 		}
 	}
@@ -135,7 +163,7 @@ public class ItemMap {
 	 *            ItemStack to remove
 	 */
 	public void removeItemStackCompletly(ItemStack input) {
-		ItemStack is = createMapConformCopy(input);
+		ItemFingerprint is = ItemFingerprint.of(input);
 		if (is != null) {
 			items.remove(is);
 		}
@@ -143,11 +171,7 @@ public class ItemMap {
 
 	@Override
 	public int hashCode() {
-		int res = 0;
-		for (Entry<ItemStack, Integer> entry : items.entrySet()) {
-			res += entry.hashCode();
-		}
-		return res;
+		return items.hashCode();
 	}
 
 	/**
@@ -171,13 +195,11 @@ public class ItemMap {
 	 *            ItemMap to merge
 	 */
 	public void merge(ItemMap im) {
-		for (Entry<ItemStack, Integer> entry : im.getEntrySet()) {
-			addItemAmount(entry.getKey(), entry.getValue());
-		}
+		im.items.forEach(this::addItemAmount);
 	}
 
 	public void update(Inventory inv) {
-		items = new HashMap<>();
+		items = new FingerprintCountMap();
 		totalItems = 0;
 		for (int i = 0; i < inv.getSize(); i++) {
 			ItemStack is = inv.getItem(i);
@@ -202,12 +224,7 @@ public class ItemMap {
 	 *            Amount associated with the given ItemStack
 	 */
 	public void addItemAmount(ItemStack input, int amount) {
-		ItemStack copy = createMapConformCopy(input);
-		if (copy == null) {
-			return;
-		}
-		copy.setAmount(amount);
-		addItemStack(copy);
+		addItemAmount(ItemFingerprint.of(input), amount);
 	}
 
 	/**
@@ -220,11 +237,7 @@ public class ItemMap {
 	 */
 	public ItemMap getStacksByMaterial(Material m) {
 		ItemMap result = new ItemMap();
-		for (ItemStack is : items.keySet()) {
-			if (is.getType() == m) {
-				result.addItemAmount(is.clone(), items.get(is));
-			}
-		}
+		items.forEach(m, result::addItemAmount);
 		return result;
 	}
 
@@ -244,11 +257,11 @@ public class ItemMap {
 	 */
 	public ItemMap getStacksByMaterialDurability(Material m, int durability) {
 		ItemMap result = new ItemMap();
-		for (ItemStack is : items.keySet()) {
-			if (is.getType() == m && is.getDurability() == durability) {
-				result.addItemAmount(is.clone(), items.get(is));
+		items.forEach(m, (fingerprint, amount) -> {
+			if (fingerprint.getStack().getDurability() == durability) {
+				result.addItemAmount(fingerprint, amount);
 			}
-		}
+		});
 		return result;
 	}
 
@@ -271,12 +284,13 @@ public class ItemMap {
 	 */
 	public ItemMap getStacksByMaterialDurabilityEnchants(Material m, int durability, Map<Enchantment, Integer> enchants) {
 		ItemMap result = new ItemMap();
-		for (ItemStack is : items.keySet()) {
-			if (is.getType() == m && is.getDurability() == durability && is.getItemMeta() != null
+		items.forEach(m, (fingerprint, amount) -> {
+			ItemStack is = fingerprint.getStack();
+			if (is.getDurability() == durability && is.getItemMeta() != null
 					&& is.getItemMeta().getEnchants().equals(enchants)) {
-				result.addItemAmount(is.clone(), items.get(is));
+				result.addItemAmount(fingerprint, amount);
 			}
-		}
+		});
 		return result;
 	}
 
@@ -300,11 +314,12 @@ public class ItemMap {
 	 */
 	public ItemMap getStacksByLore(List<String> lore) {
 		ItemMap result = new ItemMap();
-		for (ItemStack is : items.keySet()) {
+		items.forEach((fingerprint, amount) -> {
+			ItemStack is = fingerprint.getStack();
 			if (is.getItemMeta() != null && is.getItemMeta().getLore().equals(lore)) {
-				result.addItemAmount(is.clone(), items.get(is));
+				result.addItemAmount(fingerprint, amount);
 			}
-		}
+		});
 		return result;
 	}
 
@@ -317,16 +332,37 @@ public class ItemMap {
 	 * @return amount of items like the given stack in this map
 	 */
 	public int getAmount(ItemStack is) {
-		ItemMap matSubMap = getStacksByMaterial(is);
-		int amount = 0;
-		for (Entry<ItemStack, Integer> entry : matSubMap.getEntrySet()) {
-			ItemStack current = entry.getKey();
-			if ((is.getDurability() == -1 || is.getDurability() == current.getDurability())
-					&& is.getItemMeta().equals(current.getItemMeta())) {
-				amount += entry.getValue();
+		int[] amount = new int[1];
+		items.forEach(is.getType(), (fingerprint, count) -> {
+			if (matches(is, fingerprint)) {
+				amount[0] += count;
 			}
+		});
+		return amount[0];
+	}
+
+	/**
+	 * Checks whether the given item is counted by {@link #getAmount(ItemStack)} for the given stack
+	 */
+	private static boolean matches(ItemStack is, ItemFingerprint fingerprint) {
+		if (fingerprint.getMaterial() != is.getType()) {
+			return false;
 		}
-		return amount;
+		ItemStack current = fingerprint.getStack();
+		return (is.getDurability() == -1 || is.getDurability() == current.getDurability())
+				&& is.getItemMeta().equals(current.getItemMeta());
+	}
+
+	/**
+	 * Gets how many items of exactly the given item are in this map, without durability wild cards. Unlike
+	 * {@link #getAmount(ItemStack)} this is a single hash lookup.
+	 *
+	 * @param fingerprint
+	 *            Item to search for
+	 * @return amount of items of the given item in this map
+	 */
+	public int getExactAmount(ItemFingerprint fingerprint) {
+		return items.get(fingerprint);
 	}
 
 	/**
@@ -340,12 +376,28 @@ public class ItemMap {
 	 * @return How many unique items are stored in this map
 	 */
 	public int getTotalUniqueItemAmount() {
-		return items.keySet().size();
+		return items.size();
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * @return Copy of the content of this map, changing it doesn't affect this map
+	 */
 	public Set<Entry<ItemStack, Integer>> getEntrySet() {
-		return ((HashMap<ItemStack, Integer>) items.clone()).entrySet();
+		HashMap<ItemStack, Integer> copy = new HashMap<>();
+		items.forEach((fingerprint, amount) -> copy.put(fingerprint.toItemStack(1), amount));
+		return copy.entrySet();
+	}
+
+	/**
+	 * Passes every item in this map and its amount to the given consumer, without copying anything like
+	 * {@link #getEntrySet()} does. Fingerprints are immutable, use {@link ItemFingerprint#toItemStack(int)} to get a
+	 * stack of one. The consumer must not modify this map.
+	 *
+	 * @param consumer
+	 *            Consumer to pass each item and its amount to
+	 */
+	public void forEach(ObjIntConsumer<ItemFingerprint> consumer) {
+		items.forEach(consumer);
 	}
 
 	/**
@@ -357,8 +409,9 @@ public class ItemMap {
 	 */
 	public boolean containedExactlyIn(Inventory i) {
 		ItemMap invMap = new ItemMap(i);
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			if (!entry.getValue().equals(invMap.getAmount(entry.getKey()))) {
+		for (int slot = 0; slot < items.capacity(); slot++) {
+			ItemFingerprint fingerprint = items.keyAt(slot);
+			if (fingerprint != null && items.valueAt(slot) != invMap.getAmount(fingerprint.getStack())) {
 				return false;
 			}
 		}
@@ -366,7 +419,7 @@ public class ItemMap {
 			if (is == null) {
 				continue;
 			}
-			if (getStacksByMaterial(is).getTotalUniqueItemAmount() == 0) {
+			if (!items.containsMaterial(is.getType())) {
 				return false;
 			}
 		}
@@ -383,9 +436,22 @@ public class ItemMap {
 	 * @return true if this instance is completly contained in the given inventory, false if not
 	 */
 	public boolean isContainedIn(Inventory i) {
-		ItemMap invMap = new ItemMap(i);
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			if (entry.getValue() > invMap.getAmount(entry.getKey())) {
+		return isContainedIn(new ItemMap(i));
+	}
+
+	/**
+	 * Checks whether this instance is completly contained in the given ItemMap, which means every stack in this instance
+	 * is also in the given map and the amount in the given map is either the same or bigger as in this instance. Use
+	 * {@link InventoryItemMap#contains(ItemMap)} to repeatedly check the same inventory without rebuilding its content
+	 *
+	 * @param invMap
+	 *            ItemMap to check
+	 * @return true if this instance is completly contained in the given map, false if not
+	 */
+	public boolean isContainedIn(ItemMap invMap) {
+		for (int slot = 0; slot < items.capacity(); slot++) {
+			ItemFingerprint fingerprint = items.keyAt(slot);
+			if (fingerprint != null && items.valueAt(slot) > invMap.getAmount(fingerprint.getStack())) {
 				return false;
 			}
 		}
@@ -410,11 +476,26 @@ public class ItemMap {
 	 * @return How often this map is contained in the given one or Integer.MAX_VALUE if this instance is empty
 	 */
 	public int getMultiplesContainedIn(Inventory i) {
-		ItemMap invMap = new ItemMap(i);
+		return getMultiplesContainedIn(new ItemMap(i));
+	}
+
+	/**
+	 * Checks how often this ItemMap is contained in the given ItemMap or how often this ItemMap could be removed from
+	 * the given one before creating negative stacks
+	 *
+	 * @param invMap
+	 *            ItemMap to check
+	 * @return How often this map is contained in the given one or Integer.MAX_VALUE if this instance is empty
+	 */
+	public int getMultiplesContainedIn(ItemMap invMap) {
 		int res = Integer.MAX_VALUE;
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			int pulledAmount = invMap.getAmount(entry.getKey());
-			int multiples = pulledAmount / entry.getValue();
+		for (int slot = 0; slot < items.capacity(); slot++) {
+			ItemFingerprint fingerprint = items.keyAt(slot);
+			if (fingerprint == null) {
+				continue;
+			}
+			int pulledAmount = invMap.getAmount(fingerprint.getStack());
+			int multiples = pulledAmount / items.valueAt(slot);
 			res = Math.min(res, multiples);
 		}
 		return res;
@@ -428,9 +509,12 @@ public class ItemMap {
 	 */
 	public void multiplyContent(double multiplier) {
 		totalItems = 0;
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			items.put(entry.getKey(), (int) (entry.getValue() * multiplier));
-			totalItems += (int) (entry.getValue() * multiplier);
+		for (int slot = 0; slot < items.capacity(); slot++) {
+			if (items.keyAt(slot) != null) {
+				int amount = (int) (items.valueAt(slot) * multiplier);
+				items.setValueAt(slot, amount);
+				totalItems += amount;
+			}
 		}
 	}
 
@@ -442,9 +526,9 @@ public class ItemMap {
 	 */
 	public LinkedList<ItemStack> getItemStackRepresentation() {
 		LinkedList<ItemStack> result = new LinkedList<>();
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			ItemStack is = entry.getKey();
-			Integer amount = entry.getValue();
+		items.forEach((fingerprint, totalAmount) -> {
+			ItemStack is = fingerprint.getStack();
+			int amount = totalAmount;
 			while (amount != 0) {
 				ItemStack toAdd = is.clone();
 				int addAmount = Math.min(amount, is.getMaxStackSize());
@@ -453,19 +537,40 @@ public class ItemMap {
 				result.add(toAdd);
 				amount -= addAmount;
 			}
-		}
+		});
 		return result;
 	}
 
+	/**
+	 * @return Size of the list {@link #getItemStackRepresentation()} would return, without creating it
+	 */
+	private int getItemStackCount() {
+		int count = 0;
+		for (int slot = 0; slot < items.capacity(); slot++) {
+			ItemFingerprint fingerprint = items.keyAt(slot);
+			if (fingerprint == null) {
+				continue;
+			}
+			int amount = items.valueAt(slot);
+			int maxStackSize = fingerprint.getStack().getMaxStackSize();
+			if (amount < 0) {
+				// a negative amount always ends up as a single stack
+				count++;
+			} else {
+				count += amount / maxStackSize + (amount % maxStackSize == 0 ? 0 : 1);
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Clones this map
 	 */
 	@Override
 	public ItemMap clone() {
 		ItemMap clone = new ItemMap();
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			clone.addItemAmount(entry.getKey(), entry.getValue());
-		}
+		clone.items = new FingerprintCountMap(items);
+		clone.totalItems = items.sum();
 		return clone;
 	}
 
@@ -487,9 +592,8 @@ public class ItemMap {
 		for (ItemStack is : i.getStorageContents()) {
 			invCopy.addItemStack(is);
 		}
-		ItemMap instanceCopy = this.clone();
-		instanceCopy.merge(invCopy);
-		return instanceCopy.getItemStackRepresentation().size() <= size;
+		invCopy.merge(this);
+		return invCopy.getItemStackCount() <= size;
 	}
 
 	/**
@@ -500,12 +604,12 @@ public class ItemMap {
 	 */
 	public List<ItemStack> getLoredItemCountRepresentation() {
 		List<ItemStack> items = new LinkedList<>();
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			ItemStack is = entry.getKey().clone();
-			ISUtils.addLore(is, ChatColor.GOLD + "Total item count: " + entry.getValue());
-			if (entry.getValue() > entry.getKey().getType().getMaxStackSize()) {
-				int stacks = entry.getValue() / is.getType().getMaxStackSize();
-				int extra = entry.getValue() % is.getType().getMaxStackSize();
+		this.items.forEach((fingerprint, amount) -> {
+			ItemStack is = fingerprint.toItemStack(1);
+			ISUtils.addLore(is, ChatColor.GOLD + "Total item count: " + amount);
+			if (amount > fingerprint.getMaterial().getMaxStackSize()) {
+				int stacks = amount / is.getType().getMaxStackSize();
+				int extra = amount % is.getType().getMaxStackSize();
 				StringBuilder out = new StringBuilder(ChatColor.GOLD.toString());
 				if (stacks != 0) {
 					out.append(stacks + " stack" + (stacks == 1 ? "" : "s"));
@@ -517,45 +621,85 @@ public class ItemMap {
 				ISUtils.addLore(is, out.toString());
 			}
 			items.add(is);
-		}
+		});
 		return items;
 	}
 
 	/**
-	 * Attempts to remove the content of this ItemMap from the given inventory. If it fails to find all the required
-	 * items it will stop and return false
+	 * Attempts to remove the content of this ItemMap from the given inventory. The removal is planned for every slot
+	 * first and only applied if all required items were found, so the inventory is left untouched if this fails. Items
+	 * are taken from the first slots holding them, items with an exact durability are taken before durability wild
+	 * cards are, so a wild card doesn't use up the items another entry needs. Only storage slots are used, so armor and
+	 * off hand slots of player inventories are never touched
 	 *
 	 * @param i
 	 *            Inventory to remove from
 	 * @return True if everything was successfully removed, false if not
 	 */
 	public boolean removeSafelyFrom(Inventory i) {
-		for (Entry<ItemStack, Integer> entry : getEntrySet()) {
-			int amountToRemove = entry.getValue();
-			ItemStack is = entry.getKey();
-			for (ItemStack inventoryStack : i.getContents()) {
-				if (inventoryStack == null) {
+		// Storage slots come first in every inventory, so their indices are the ones setItem() expects
+		ItemStack[] contents = i.getStorageContents();
+		ItemFingerprint[] slotItems = new ItemFingerprint[contents.length];
+		int[] remaining = new int[contents.length];
+		// Slots holding the same item are chained in ascending order, the map holds the first slot of each item plus
+		// one, as it returns 0 for missing items. The chain ends with -1
+		FingerprintCountMap firstSlots = new FingerprintCountMap();
+		int[] nextSlots = new int[contents.length];
+		for (int slot = contents.length - 1; slot >= 0; slot--) {
+			ItemStack is = contents[slot];
+			if (is == null || !items.containsMaterial(is.getType())) {
+				continue;
+			}
+			ItemFingerprint fingerprint = ItemFingerprint.of(is);
+			if (fingerprint == null) {
+				continue;
+			}
+			slotItems[slot] = fingerprint;
+			remaining[slot] = is.getAmount();
+			nextSlots[slot] = firstSlots.get(fingerprint) - 1;
+			firstSlots.put(fingerprint, slot + 1);
+		}
+		for (int pass = 0; pass < 2; pass++) {
+			boolean wildCards = pass == 1;
+			for (int entry = 0; entry < items.capacity(); entry++) {
+				ItemFingerprint fingerprint = items.keyAt(entry);
+				if (fingerprint == null || (fingerprint.getStack().getDurability() == -1) != wildCards) {
 					continue;
 				}
-				if (inventoryStack.getType() == is.getType()) {
-					ItemMap compareMap = new ItemMap(inventoryStack);
-					int removeAmount = Math.min(amountToRemove, compareMap.getAmount(is));
-					if (removeAmount != 0) {
-						ItemStack cloneStack = inventoryStack.clone();
-						cloneStack.setAmount(removeAmount);
-						if (i.removeItem(cloneStack).values().size() != 0) {
-							return false;
-						} else {
+				int amountToRemove = items.valueAt(entry);
+				if (wildCards) {
+					ItemStack is = fingerprint.getStack();
+					for (int slot = 0; slot < contents.length && amountToRemove > 0; slot++) {
+						if (slotItems[slot] != null && matches(is, slotItems[slot])) {
+							int removeAmount = Math.min(amountToRemove, remaining[slot]);
+							remaining[slot] -= removeAmount;
 							amountToRemove -= removeAmount;
-							if (amountToRemove <= 0) {
-								break;
-							}
 						}
 					}
+				} else {
+					int slot = firstSlots.get(fingerprint) - 1;
+					while (slot >= 0 && amountToRemove > 0) {
+						int removeAmount = Math.min(amountToRemove, remaining[slot]);
+						remaining[slot] -= removeAmount;
+						amountToRemove -= removeAmount;
+						slot = nextSlots[slot];
+					}
+				}
+				if (amountToRemove > 0) {
+					return false;
 				}
 			}
-			if (amountToRemove > 0) {
-				return false;
+		}
+		for (int slot = 0; slot < contents.length; slot++) {
+			ItemStack is = contents[slot];
+			if (slotItems[slot] == null || remaining[slot] == is.getAmount()) {
+				continue;
+			}
+			if (remaining[slot] == 0) {
+				i.setItem(slot, null);
+			} else {
+				is.setAmount(remaining[slot]);
+				i.setItem(slot, is);
 			}
 		}
 		return true;
@@ -577,18 +721,28 @@ public class ItemMap {
 		// clone so we can remove elements as needed.
 		ArrayList<ItemExpression> itemExpressions1 = new ArrayList<>(itemExpressions);
 		ItemMap clone = clone();
+		// Expressions only get copies of the shared canonical stacks, created once per item
+		Map<ItemFingerprint, ItemStack> copies = new HashMap<>();
 
-		// The list is reversed so we can remove the current ItemExpression without shifting over the list.
-		for (ItemExpression e : Lists.reverse(itemExpressions1)) {
-			Predicate<Entry<ItemStack, Integer>> iePredicate = e.getMatchesItemMapPredicate(clone);
+		// The list is walked backwards so we can remove the current ItemExpression without shifting over the list.
+		for (int index = itemExpressions1.size() - 1; index >= 0; index--) {
+			Predicate<Entry<ItemStack, Integer>> iePredicate = itemExpressions1.get(index)
+					.getMatchesItemMapPredicate(clone);
 			boolean matched = false;
 
-			for (Entry<ItemStack, Integer> entry : clone.getEntrySet()) {
+			for (int slot = 0; slot < clone.items.capacity(); slot++) {
+				ItemFingerprint fingerprint = clone.items.keyAt(slot);
+				if (fingerprint == null) {
+					continue;
+				}
+				Entry<ItemStack, Integer> entry = new AbstractMap.SimpleImmutableEntry<>(
+						copies.computeIfAbsent(fingerprint, f -> f.toItemStack(1)),
+						clone.items.valueAt(slot));
 				if (iePredicate.test(entry)) {
 					// Make sure that each ItemExpression can match one ItemStack,
 					// and that each ItemStack can only be matched by one ItemExpression
-					clone.removeItemStack(entry.getKey());
-					itemExpressions1.remove(e);
+					clone.removeItemAmount(fingerprint, 1);
+					itemExpressions1.remove(index);
 					matched = true;
 					break;
 				}
@@ -608,33 +762,12 @@ public class ItemMap {
 		if (o instanceof ItemMap) {
 			ItemMap im = (ItemMap) o;
 			if (im.getTotalItemAmount() == getTotalItemAmount()) {
-				return im.getEntrySet().equals(getEntrySet());
+				return im.items.equals(items);
 			}
 		}
 		return false;
 	}
 
-	/**
-	 * Utility to not mess with stacks directly taken from inventories
-	 *
-	 * @param is
-	 *            Template ItemStack
-	 * @return Cloned ItemStack with its amount set to 1
-	 */
-	private static ItemStack createMapConformCopy(ItemStack is) {
-		ItemStack copy = is.clone();
-		copy.setAmount(1);
-		net.minecraft.server.v1_13_R2.ItemStack s = CraftItemStack.asNMSCopy(copy);
-		if (s == null) {
-			log.info("Attempted to create map conform copy of " + copy.toString()
-					+ ", but couldn't because this item can't be held in inventories since Minecraft 1.8");
-			return null;
-		}
-		s.setRepairCost(0);
-		copy = CraftItemStack.asBukkitCopy(s);
-		return copy;
-	}
-
 	/**
 	 * Utility to add NBT tags to an item and produce a custom stack size
 	 *
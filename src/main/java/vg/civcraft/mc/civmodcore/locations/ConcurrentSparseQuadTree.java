@@ -0,0 +1,97 @@
+package vg.civcraft.mc.civmodcore.locations;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Thread safe variant of {@link SparseQuadTree}. Writes copy the nodes they
+ * touch and then publish a new root, so a published tree is never modified
+ * again. Readers only read the current root once and then work on that
+ * snapshot, which means queries never block and can be run from any thread
+ * while another thread (usually the main thread) keeps writing. Writes are
+ * serialized among each other.
+ *
+ * Every write copies the affected leaves, so this is meant for trees which are
+ * queried a lot more often than they are modified.
+ */
+public class ConcurrentSparseQuadTree {
+
+	private volatile SparseQuadTree root;
+
+	public ConcurrentSparseQuadTree() {
+		this.root = new SparseQuadTree();
+	}
+
+	public ConcurrentSparseQuadTree(Integer borderSize) {
+		this.root = new SparseQuadTree(borderSize);
+	}
+
+	public ConcurrentSparseQuadTree(Integer borderSize, Collection<? extends QTBox> boxes) {
+		this.root = new SparseQuadTree(borderSize, boxes);
+	}
+
+	public synchronized void add(QTBox box) {
+		root = root.copyWith(box);
+	}
+
+	public synchronized void remove(QTBox box) {
+		root = root.copyWithout(box);
+	}
+
+	public int size() {
+		return root.size();
+	}
+
+	public int getBorderSize() {
+		return root.getBorderSize();
+	}
+
+	public Set<QTBox> find(int x, int y) {
+		return root.find(x, y);
+	}
+
+	public Set<QTBox> find(int x, int y, boolean includeBorder) {
+		return root.find(x, y, includeBorder);
+	}
+
+	public <T extends Collection<? super QTBox>> T find(int x, int y, boolean includeBorder, T result) {
+		return root.find(x, y, includeBorder, result);
+	}
+
+	public void forEachAt(int x, int y, Consumer<? super QTBox> consumer) {
+		root.forEachAt(x, y, consumer);
+	}
+
+	public void forEachAt(int x, int y, boolean includeBorder, Consumer<? super QTBox> consumer) {
+		root.forEachAt(x, y, includeBorder, consumer);
+	}
+
+	public Set<QTBox> findOverlapping(int xMin, int zMin, int xMax, int zMax) {
+		return root.findOverlapping(xMin, zMin, xMax, zMax);
+	}
+
+	public Set<QTBox> findOverlapping(int xMin, int zMin, int xMax, int zMax, boolean includeBorder) {
+		return root.findOverlapping(xMin, zMin, xMax, zMax, includeBorder);
+	}
+
+	public void forEachOverlapping(int xMin, int zMin, int xMax, int zMax, boolean includeBorder,
+			Consumer<? super QTBox> consumer) {
+		root.forEachOverlapping(xMin, zMin, xMax, zMax, includeBorder, consumer);
+	}
+
+	public QTBox nearest(int x, int y) {
+		return root.nearest(x, y);
+	}
+
+	public List<QTBox> kNearest(int x, int y, int k, double maxDistance) {
+		return root.kNearest(x, y, k, maxDistance);
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+}
@@ -0,0 +1,23 @@
+package vg.civcraft.mc.civmodcore.locations;
+
+public interface OTBox {
+
+	int otXMin();
+
+	int otXMid();
+
+	int otXMax();
+
+	int otYMin();
+
+	int otYMid();
+
+	int otYMax();
+
+	int otZMin();
+
+	int otZMid();
+
+	int otZMax();
+
+}
@@ -0,0 +1,248 @@
+package vg.civcraft.mc.civmodcore.locations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the boxes of a single {@link SparseQuadTree} leaf. The bounds of
+ * every box are kept in parallel primitive arrays next to the box references,
+ * so scanning a leaf is a plain loop over int arrays instead of four interface
+ * calls per box.
+ *
+ * Boxes are kept sorted by their natural order and are unique by it, the same
+ * way a TreeSet would hold them, so boxes have to be Comparable. Boxes are
+ * expected to not change their bounds while they are in a tree.
+ */
+class QTLeaf {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private QTBox[] boxes;
+
+	private int[] xMins;
+
+	private int[] xMaxs;
+
+	private int[] zMins;
+
+	private int[] zMaxs;
+
+	private int size;
+
+	QTLeaf() {
+		boxes = new QTBox[INITIAL_CAPACITY];
+		xMins = new int[INITIAL_CAPACITY];
+		xMaxs = new int[INITIAL_CAPACITY];
+		zMins = new int[INITIAL_CAPACITY];
+		zMaxs = new int[INITIAL_CAPACITY];
+	}
+
+	QTLeaf(QTLeaf other) {
+		int capacity = Math.max(other.size + 1, INITIAL_CAPACITY);
+		boxes = Arrays.copyOf(other.boxes, capacity);
+		xMins = Arrays.copyOf(other.xMins, capacity);
+		xMaxs = Arrays.copyOf(other.xMaxs, capacity);
+		zMins = Arrays.copyOf(other.zMins, capacity);
+		zMaxs = Arrays.copyOf(other.zMaxs, capacity);
+		size = other.size;
+	}
+
+	int size() {
+		return size;
+	}
+
+	QTBox get(int index) {
+		return boxes[index];
+	}
+
+	int xMin(int index) {
+		return xMins[index];
+	}
+
+	int xMax(int index) {
+		return xMaxs[index];
+	}
+
+	int zMin(int index) {
+		return zMins[index];
+	}
+
+	int zMax(int index) {
+		return zMaxs[index];
+	}
+
+	/**
+	 * @param box Box to add
+	 * @return True if the box was added, false if an equal one was already in
+	 *         this leaf
+	 */
+	boolean add(QTBox box) {
+		int index = indexOf(box);
+		if (index >= 0) {
+			return false;
+		}
+		insert(-(index + 1), box, box.qtXMin(), box.qtXMax(), box.qtZMin(), box.qtZMax());
+		return true;
+	}
+
+	/**
+	 * Adds all given boxes, sorting them once instead of inserting them one by
+	 * one. Boxes equal to one already in this leaf or to an earlier one of the
+	 * given boxes are skipped.
+	 *
+	 * @param added Boxes to add
+	 */
+	void addAll(Collection<? extends QTBox> added) {
+		QTBox[] all = Arrays.copyOf(boxes, size + added.size());
+		int count = size;
+		for (QTBox box : added) {
+			all[count++] = box;
+		}
+		// Stable, so of several equal boxes the one added first stays
+		Arrays.sort(all, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || compare(all[i], all[unique - 1]) != 0) {
+				all[unique++] = all[i];
+			}
+		}
+		int capacity = Math.max(unique + 1, INITIAL_CAPACITY);
+		boxes = Arrays.copyOf(all, capacity);
+		xMins = new int[capacity];
+		xMaxs = new int[capacity];
+		zMins = new int[capacity];
+		zMaxs = new int[capacity];
+		for (int i = 0; i < unique; i++) {
+			xMins[i] = boxes[i].qtXMin();
+			xMaxs[i] = boxes[i].qtXMax();
+			zMins[i] = boxes[i].qtZMin();
+			zMaxs[i] = boxes[i].qtZMax();
+		}
+		size = unique;
+	}
+
+	// Adds the box at the given index of another leaf behind all boxes of this
+	// one, so it has to come after them in their order
+	void append(QTLeaf other, int index) {
+		insert(size, other.boxes[index], other.xMins[index], other.xMaxs[index], other.zMins[index],
+				other.zMaxs[index]);
+	}
+
+	/**
+	 * @param box Box to remove
+	 * @return True if the box was removed, false if it wasn't in this leaf
+	 */
+	boolean remove(QTBox box) {
+		int index = indexOf(box);
+		if (index < 0) {
+			return false;
+		}
+		int moved = size - index - 1;
+		System.arraycopy(boxes, index + 1, boxes, index, moved);
+		System.arraycopy(xMins, index + 1, xMins, index, moved);
+		System.arraycopy(xMaxs, index + 1, xMaxs, index, moved);
+		System.arraycopy(zMins, index + 1, zMins, index, moved);
+		System.arraycopy(zMaxs, index + 1, zMaxs, index, moved);
+		--size;
+		boxes[size] = null;
+		return true;
+	}
+
+	private void insert(int index, QTBox box, int xMin, int xMax, int zMin, int zMax) {
+		if (size == boxes.length) {
+			int capacity = size * 2;
+			boxes = Arrays.copyOf(boxes, capacity);
+			xMins = Arrays.copyOf(xMins, capacity);
+			xMaxs = Arrays.copyOf(xMaxs, capacity);
+			zMins = Arrays.copyOf(zMins, capacity);
+			zMaxs = Arrays.copyOf(zMaxs, capacity);
+		}
+		int moved = size - index;
+		System.arraycopy(boxes, index, boxes, index + 1, moved);
+		System.arraycopy(xMins, index, xMins, index + 1, moved);
+		System.arraycopy(xMaxs, index, xMaxs, index + 1, moved);
+		System.arraycopy(zMins, index, zMins, index + 1, moved);
+		System.arraycopy(zMaxs, index, zMaxs, index + 1, moved);
+		boxes[index] = box;
+		xMins[index] = xMin;
+		xMaxs[index] = xMax;
+		zMins[index] = zMin;
+		zMaxs[index] = zMax;
+		++size;
+	}
+
+	// Binary search by the natural order of the boxes, returns the index of the
+	// box or (-(insertion point) - 1) if it isn't in this leaf
+	private int indexOf(QTBox box) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = compare(box, boxes[mid]);
+			if (comparison > 0) {
+				low = mid + 1;
+			} else if (comparison < 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(QTBox box, QTBox other) {
+		return ((Comparable<? super QTBox>) box).compareTo(other);
+	}
+
+	// Squared euclidean distance from the given point to the closest point of the
+	// box at the given index, 0 if the point is inside the box
+	double distanceSquared(int index, int x, int z) {
+		double dx = axisDistance(x, xMins[index], xMaxs[index]);
+		double dz = axisDistance(z, zMins[index], zMaxs[index]);
+		return dx * dx + dz * dz;
+	}
+
+	static long axisDistance(long value, long min, long max) {
+		if (value < min) {
+			return min - value;
+		}
+		if (value > max) {
+			return value - max;
+		}
+		return 0;
+	}
+
+	void forEachAt(int x, int z, int border, Consumer<? super QTBox> consumer) {
+		int[] xMins = this.xMins;
+		int[] xMaxs = this.xMaxs;
+		int[] zMins = this.zMins;
+		int[] zMaxs = this.zMaxs;
+		for (int i = 0; i < size; i++) {
+			if (xMins[i] - border <= x && xMaxs[i] + border >= x && zMins[i] - border <= z
+					&& zMaxs[i] + border >= z) {
+				consumer.accept(boxes[i]);
+			}
+		}
+	}
+
+	// Reports boxes overlapping the given rectangle whose intersection with it
+	// has its lower corner within lowX < x <= highX, lowZ < z <= highZ
+	void forEachOverlapping(int xMin, int zMin, int xMax, int zMax, int border, long lowX, long highX, long lowZ,
+			long highZ, Consumer<? super QTBox> consumer) {
+		for (int i = 0; i < size; i++) {
+			int boxXMin = xMins[i] - border;
+			int boxZMin = zMins[i] - border;
+			if (boxXMin > xMax || xMaxs[i] + border < xMin || boxZMin > zMax || zMaxs[i] + border < zMin) {
+				continue;
+			}
+			int refX = Math.max(boxXMin, xMin);
+			int refZ = Math.max(boxZMin, zMin);
+			if (refX > lowX && refX <= highX && refZ > lowZ && refZ <= highZ) {
+				consumer.accept(boxes[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,393 @@
+package vg.civcraft.mc.civmodcore.locations;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+// Three dimensional sibling of SparseQuadTree, which additionally splits along
+//  the y axis. Boxes limited to a certain height range will end up in
+//  different leaves than boxes at other heights covering the same x and z
+//  coordinates. Same as with SparseQuadTree, this is not designed to contain
+//  boxes spanning the entire integer range.
+
+public class SparseOctree {
+
+	public final int MAX_NODE_SIZE = 32;
+
+	// Bits of an octant index, set if the octant is on the upper side of the
+	// respective axis. -1 is used for the root
+	protected static final int X_BIT = 1;
+
+	protected static final int Y_BIT = 2;
+
+	protected static final int Z_BIT = 4;
+
+	protected static final int ROOT = -1;
+
+	public SparseOctree() {
+		boxes_ = new TreeSet<>();
+		borderSize_ = 0;
+		octant_ = ROOT;
+	}
+
+	public SparseOctree(Integer borderSize) {
+		boxes_ = new TreeSet<>();
+		if (borderSize == null || borderSize < 0) {
+			throw new IllegalArgumentException("borderSize == null || borderSize < 0");
+		}
+		borderSize_ = borderSize;
+		octant_ = ROOT;
+	}
+
+	/**
+	 * Creates a tree already containing all of the given boxes, splitting every
+	 * node only once after all boxes have been distributed. The resulting tree
+	 * has about the same depth and node count as one built by adding the boxes
+	 * one by one.
+	 *
+	 * @param borderSize Border size of the tree
+	 * @param boxes      Boxes to load into the tree
+	 */
+	public SparseOctree(Integer borderSize, Collection<? extends OTBox> boxes) {
+		this(borderSize);
+		for (OTBox box : boxes) {
+			add(box, true);
+		}
+		splitFully();
+	}
+
+	protected SparseOctree(Integer borderSize, int octant) {
+		boxes_ = new TreeSet<>();
+		borderSize_ = borderSize;
+		octant_ = octant;
+	}
+
+	public void add(OTBox box) {
+		add(box, false);
+	}
+
+	protected void add(OTBox box, boolean inSplit) {
+		++size_;
+		if (boxes_ != null) {
+			boxes_.add(box);
+			if (!inSplit) {
+				split();
+			}
+			return;
+		}
+		for (int octant = 0; octant < 8; octant++) {
+			if (isInOctant(box, octant)) {
+				children_[octant].add(box);
+			}
+		}
+	}
+
+	public void remove(OTBox box) {
+		if (size_ <= 0) {
+			size_ = 0;
+			return;
+		}
+		--size_;
+		if (size_ == 0) {
+			boxes_ = new TreeSet<>();
+			children_ = null;
+			return;
+		}
+		if (boxes_ != null) {
+			boxes_.remove(box);
+			return;
+		}
+		for (int octant = 0; octant < 8; octant++) {
+			if (isInOctant(box, octant)) {
+				children_[octant].remove(box);
+			}
+		}
+	}
+
+	public int size() {
+		return size_;
+	}
+
+	public Set<OTBox> find(int x, int y, int z) {
+		return find(x, y, z, false);
+	}
+
+	public Set<OTBox> find(int x, int y, int z, boolean includeBorder) {
+		Set<OTBox> result = new TreeSet<>();
+		forEachAt(x, y, z, includeBorder, result::add);
+		return result;
+	}
+
+	/**
+	 * Passes every box containing the given point to the given consumer without
+	 * allocating anything.
+	 *
+	 * @param x             X coordinate to look up
+	 * @param y             Y coordinate to look up
+	 * @param z             Z coordinate to look up
+	 * @param includeBorder Whether the border of this tree should be considered
+	 * @param consumer      Consumer called once for every matching box
+	 */
+	public void forEachAt(int x, int y, int z, boolean includeBorder, Consumer<? super OTBox> consumer) {
+		SparseOctree node = this;
+		while (node.boxes_ == null) {
+			int octant = 0;
+			if (x > node.midX_) {
+				octant |= X_BIT;
+			}
+			if (y > node.midY_) {
+				octant |= Y_BIT;
+			}
+			if (z > node.midZ_) {
+				octant |= Z_BIT;
+			}
+			node = node.children_[octant];
+		}
+		int border = includeBorder ? borderSize_ : 0;
+		for (OTBox box : node.boxes_) {
+			if (box.otXMin() - border <= x && box.otXMax() + border >= x && box.otYMin() - border <= y
+					&& box.otYMax() + border >= y && box.otZMin() - border <= z && box.otZMax() + border >= z) {
+				consumer.accept(box);
+			}
+		}
+	}
+
+	public Set<OTBox> findOverlapping(int xMin, int yMin, int zMin, int xMax, int yMax, int zMax) {
+		Set<OTBox> result = new TreeSet<>();
+		forEachOverlapping(xMin, yMin, zMin, xMax, yMax, zMax, false, result::add);
+		return result;
+	}
+
+	/**
+	 * Passes every box overlapping the given cuboid (bounds inclusive) to the
+	 * given consumer exactly once. Same as in
+	 * {@link SparseQuadTree#forEachOverlapping(int, int, int, int, boolean, Consumer)}
+	 * boxes stored in several octants are only reported by the octant containing
+	 * the lower corner of their intersection with the cuboid.
+	 *
+	 * @param xMin          Lower X bound of the cuboid
+	 * @param yMin          Lower Y bound of the cuboid
+	 * @param zMin          Lower Z bound of the cuboid
+	 * @param xMax          Upper X bound of the cuboid
+	 * @param yMax          Upper Y bound of the cuboid
+	 * @param zMax          Upper Z bound of the cuboid
+	 * @param includeBorder Whether the border of this tree should be considered
+	 * @param consumer      Consumer called once for every matching box
+	 */
+	public void forEachOverlapping(int xMin, int yMin, int zMin, int xMax, int yMax, int zMax,
+			boolean includeBorder, Consumer<? super OTBox> consumer) {
+		if (xMin > xMax || yMin > yMax || zMin > zMax) {
+			throw new IllegalArgumentException("xMin > xMax || yMin > yMax || zMin > zMax");
+		}
+		forEachOverlapping(xMin, yMin, zMin, xMax, yMax, zMax, includeBorder ? borderSize_ : 0, Long.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+	}
+
+	// The node covers the area low < coordinate <= high on every axis
+	private void forEachOverlapping(int xMin, int yMin, int zMin, int xMax, int yMax, int zMax, int border,
+			long lowX, long highX, long lowY, long highY, long lowZ, long highZ, Consumer<? super OTBox> consumer) {
+		if (boxes_ != null) {
+			for (OTBox box : boxes_) {
+				int boxXMin = box.otXMin() - border;
+				int boxYMin = box.otYMin() - border;
+				int boxZMin = box.otZMin() - border;
+				if (boxXMin > xMax || box.otXMax() + border < xMin || boxYMin > yMax || box.otYMax() + border < yMin
+						|| boxZMin > zMax || box.otZMax() + border < zMin) {
+					continue;
+				}
+				int refX = Math.max(boxXMin, xMin);
+				int refY = Math.max(boxYMin, yMin);
+				int refZ = Math.max(boxZMin, zMin);
+				if (refX > lowX && refX <= highX && refY > lowY && refY <= highY && refZ > lowZ && refZ <= highZ) {
+					consumer.accept(box);
+				}
+			}
+			return;
+		}
+		for (int octant = 0; octant < 8; octant++) {
+			boolean upperX = (octant & X_BIT) != 0;
+			boolean upperY = (octant & Y_BIT) != 0;
+			boolean upperZ = (octant & Z_BIT) != 0;
+			if ((upperX ? xMax <= midX_ : xMin > midX_) || (upperY ? yMax <= midY_ : yMin > midY_)
+					|| (upperZ ? zMax <= midZ_ : zMin > midZ_)) {
+				continue;
+			}
+			// The split point is picked from box corners, which may lie outside of this
+			// node, so the child areas are clamped to the area of this node
+			children_[octant].forEachOverlapping(xMin, yMin, zMin, xMax, yMax, zMax, border,
+					upperX ? Math.max(midX_, lowX) : lowX, upperX ? highX : Math.min(midX_, highX),
+					upperY ? Math.max(midY_, lowY) : lowY, upperY ? highY : Math.min(midY_, highY),
+					upperZ ? Math.max(midZ_, lowZ) : lowZ, upperZ ? highZ : Math.min(midZ_, highZ), consumer);
+		}
+	}
+
+	protected boolean isInOctant(OTBox box, int octant) {
+		if ((octant & X_BIT) != 0 ? box.otXMax() + borderSize_ <= midX_ : box.otXMin() - borderSize_ > midX_) {
+			return false;
+		}
+		if ((octant & Y_BIT) != 0 ? box.otYMax() + borderSize_ <= midY_ : box.otYMin() - borderSize_ > midY_) {
+			return false;
+		}
+		return (octant & Z_BIT) != 0 ? box.otZMax() + borderSize_ > midZ_ : box.otZMin() - borderSize_ <= midZ_;
+	}
+
+	protected void split() {
+		split(false);
+	}
+
+	private void split(boolean bulk) {
+		if (boxes_ == null || boxes_.size() <= maxNodeSize_) {
+			return;
+		}
+		SparseOctree[] children = new SparseOctree[8];
+		for (int octant = 0; octant < 8; octant++) {
+			children[octant] = new SparseOctree(borderSize_, octant);
+		}
+		int[] xAxis = new int[boxes_.size()];
+		int[] yAxis = new int[boxes_.size()];
+		int[] zAxis = new int[boxes_.size()];
+		int index = 0;
+		for (OTBox box : boxes_) {
+			// Same as in the quad tree, split along the corner pointing towards the
+			// center of the parent node
+			if (octant_ == ROOT) {
+				xAxis[index] = box.otXMid();
+				yAxis[index] = box.otYMid();
+				zAxis[index] = box.otZMid();
+			} else {
+				xAxis[index] = (octant_ & X_BIT) != 0 ? box.otXMax() : box.otXMin();
+				yAxis[index] = (octant_ & Y_BIT) != 0 ? box.otYMax() : box.otYMin();
+				zAxis[index] = (octant_ & Z_BIT) != 0 ? box.otZMax() : box.otZMin();
+			}
+			++index;
+		}
+		midX_ = SparseQuadTree.lowerMedianOfDistinct(xAxis);
+		midY_ = SparseQuadTree.lowerMedianOfDistinct(yAxis);
+		midZ_ = SparseQuadTree.lowerMedianOfDistinct(zAxis);
+		for (OTBox box : boxes_) {
+			for (int octant = 0; octant < 8; octant++) {
+				if (isInOctant(box, octant)) {
+					children[octant].add(box, true);
+				}
+			}
+		}
+		int largestChild = 0;
+		int childBoxes = 0;
+		for (SparseOctree child : children) {
+			largestChild = Math.max(largestChild, child.size());
+			childBoxes += child.size();
+		}
+		if (largestChild == boxes_.size()) {
+			// Splitting failed as we split into an identically sized octant. Update
+			// this nodes max size for next time and throw away the work we did.
+			maxNodeSize_ = boxes_.size() * 2;
+			return;
+		}
+		// Same as in the quad tree, children of a bulk split are split again right
+		// away, so they only get a larger max size if most boxes overlap the split
+		// point and were copied into several octants
+		if (bulk ? childBoxes > boxes_.size() * 2 : largestChild >= maxNodeSize_) {
+			maxNodeSize_ = largestChild * 2;
+			for (SparseOctree child : children) {
+				child.setMaxNodeSize(maxNodeSize_);
+			}
+		}
+		children_ = children;
+		boxes_ = null;
+	}
+
+	protected void splitFully() {
+		split(true);
+		if (boxes_ != null) {
+			return;
+		}
+		for (SparseOctree child : children_) {
+			child.splitFully();
+		}
+	}
+
+	/**
+	 * @return Amount of nodes in this tree including this one
+	 */
+	public int getNodeCount() {
+		if (boxes_ != null) {
+			return 1;
+		}
+		int count = 1;
+		for (SparseOctree child : children_) {
+			count += child.getNodeCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return Amount of levels in this tree, a single leaf has a depth of 1
+	 */
+	public int getDepth() {
+		if (boxes_ != null) {
+			return 1;
+		}
+		int depth = 0;
+		for (SparseOctree child : children_) {
+			depth = Math.max(depth, child.getDepth());
+		}
+		return depth + 1;
+	}
+
+	public int getBorderSize() {
+		return borderSize_;
+	}
+
+	public String boxCoord(OTBox box) {
+		return String.format("(%d,%d,%d %d,%d,%d)", box.otXMin(), box.otYMin(), box.otZMin(), box.otXMax(),
+				box.otYMax(), box.otZMax());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(octant_ == ROOT ? "Root" : Integer.toString(octant_));
+		if (boxes_ != null) {
+			sb.append('[');
+			for (OTBox box : boxes_) {
+				sb.append(boxCoord(box));
+			}
+			sb.append(']');
+			return sb.toString();
+		}
+		sb.append(String.format("{{%d,%d,%d}", midX_, midY_, midZ_));
+		for (int octant = 0; octant < 8; octant++) {
+			if (octant != 0) {
+				sb.append(',');
+			}
+			sb.append(children_[octant].toString());
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+
+	protected void setMaxNodeSize(int size) {
+		maxNodeSize_ = size;
+	}
+
+	protected Integer borderSize_ = 0;
+
+	protected int octant_;
+
+	protected int midX_;
+
+	protected int midY_;
+
+	protected int midZ_;
+
+	protected int size_;
+
+	protected int maxNodeSize_ = MAX_NODE_SIZE;
+
+	protected Set<OTBox> boxes_;
+
+	// Indexed by octant, see X_BIT, Y_BIT and Z_BIT
+	protected SparseOctree[] children_;
+
+}
@@ -1,8 +1,15 @@
 package vg.civcraft.mc.civmodcore.locations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 // This isn't designed to contain absolutely HUGE boxes. When the box sizes
 //  encompass the entirety of -MAX_INT to MAX_INT on both the x and y,
@@ -20,13 +27,13 @@ public class SparseQuadTree {
 	}
 
 	public SparseQuadTree() {
-		boxes_ = new TreeSet<>();
+		leaf_ = new QTLeaf();
 		borderSize_ = 0;
 		quadrant_ = Quadrant.Root;
 	}
 
 	public SparseQuadTree(Integer borderSize) {
-		boxes_ = new TreeSet<>();
+		leaf_ = new QTLeaf();
 		if (borderSize == null || borderSize < 0) {
 			throw new IllegalArgumentException("borderSize == null || borderSize < 0");
 		}
@@ -34,20 +41,53 @@ public class SparseQuadTree {
 		quadrant_ = Quadrant.Root;
 	}
 
+	/**
+	 * Creates a tree already containing all of the given boxes. Every node is
+	 * only split once after all boxes have been distributed instead of
+	 * re-evaluating the split for every single insert, the resulting tree has
+	 * about the same depth and node count as one built by adding the boxes one
+	 * by one.
+	 *
+	 * @param borderSize Border size of the tree
+	 * @param boxes      Boxes to load into the tree
+	 */
+	public SparseQuadTree(Integer borderSize, Collection<? extends QTBox> boxes) {
+		this(borderSize);
+		addAll(boxes);
+	}
+
 	protected SparseQuadTree(Integer borderSize, Quadrant quadrant) {
-		boxes_ = new TreeSet<>();
+		leaf_ = new QTLeaf();
 		borderSize_ = borderSize;
 		quadrant_ = quadrant;
 	}
 
+	// Shallow copy of a single node, used for copy-on-write updates. Children are
+	// shared with the original, leaf contents are copied.
+	protected SparseQuadTree(SparseQuadTree other) {
+		borderSize_ = other.borderSize_;
+		quadrant_ = other.quadrant_;
+		midX_ = other.midX_;
+		midZ_ = other.midZ_;
+		size_ = other.size_;
+		maxNodeSize_ = other.maxNodeSize_;
+		if (other.leaf_ != null) {
+			leaf_ = new QTLeaf(other.leaf_);
+		}
+		nw_ = other.nw_;
+		ne_ = other.ne_;
+		sw_ = other.sw_;
+		se_ = other.se_;
+	}
+
 	public void add(QTBox box) {
 		add(box, false);
 	}
 
 	protected void add(QTBox box, boolean inSplit) {
 		++size_;
-		if (boxes_ != null) {
-			boxes_.add(box);
+		if (leaf_ != null) {
+			leaf_.add(box);
 			if (!inSplit) {
 				split();
 			}
@@ -71,6 +111,25 @@ public class SparseQuadTree {
 		}
 	}
 
+	/**
+	 * Adds all given boxes at once. If this tree is still a single leaf, all boxes
+	 * are inserted first and the tree is then split in one pass, otherwise they
+	 * are added one by one.
+	 *
+	 * @param boxes Boxes to add
+	 */
+	public void addAll(Collection<? extends QTBox> boxes) {
+		if (leaf_ == null) {
+			for (QTBox box : boxes) {
+				add(box);
+			}
+			return;
+		}
+		size_ += boxes.size();
+		leaf_.addAll(boxes);
+		splitFully();
+	}
+
 	public void remove(QTBox box) {
 		if (size_ <= 0) {
 			size_ = 0;
@@ -78,15 +137,15 @@ public class SparseQuadTree {
 		}
 		--size_;
 		if (size_ == 0) {
-			boxes_ = new TreeSet<>();
+			leaf_ = new QTLeaf();
 			nw_ = null;
 			ne_ = null;
 			sw_ = null;
 			se_ = null;
 			return;
 		}
-		if (boxes_ != null) {
-			boxes_.remove(box);
+		if (leaf_ != null) {
+			leaf_.remove(box);
 			return;
 		}
 		if (box.qtXMin() - borderSize_ <= midX_) {
@@ -107,6 +166,82 @@ public class SparseQuadTree {
 		}
 	}
 
+	/**
+	 * Copy-on-write version of {@link #add(QTBox)}. This node and all nodes
+	 * below it stay untouched, only the nodes on the path to the leaves the box
+	 * ends up in are copied.
+	 *
+	 * @param box Box to add
+	 * @return New root node containing the box
+	 */
+	protected SparseQuadTree copyWith(QTBox box) {
+		SparseQuadTree copy = new SparseQuadTree(this);
+		++copy.size_;
+		if (copy.leaf_ != null) {
+			copy.leaf_.add(box);
+			copy.split();
+			return copy;
+		}
+		if (box.qtXMin() - borderSize_ <= midX_) {
+			if (box.qtZMin() - borderSize_ <= midZ_) {
+				copy.nw_ = nw_.copyWith(box);
+			}
+			if (box.qtZMax() + borderSize_ > midZ_) {
+				copy.sw_ = sw_.copyWith(box);
+			}
+		}
+		if (box.qtXMax() + borderSize_ > midX_) {
+			if (box.qtZMin() - borderSize_ <= midZ_) {
+				copy.ne_ = ne_.copyWith(box);
+			}
+			if (box.qtZMax() + borderSize_ > midZ_) {
+				copy.se_ = se_.copyWith(box);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Copy-on-write version of {@link #remove(QTBox)}. This node and all nodes
+	 * below it stay untouched.
+	 *
+	 * @param box Box to remove
+	 * @return New root node without the box
+	 */
+	protected SparseQuadTree copyWithout(QTBox box) {
+		if (size_ <= 0) {
+			return this;
+		}
+		if (size_ == 1) {
+			SparseQuadTree empty = new SparseQuadTree(borderSize_, quadrant_);
+			empty.maxNodeSize_ = maxNodeSize_;
+			return empty;
+		}
+		SparseQuadTree copy = new SparseQuadTree(this);
+		--copy.size_;
+		if (copy.leaf_ != null) {
+			copy.leaf_.remove(box);
+			return copy;
+		}
+		if (box.qtXMin() - borderSize_ <= midX_) {
+			if (box.qtZMin() - borderSize_ <= midZ_) {
+				copy.nw_ = nw_.copyWithout(box);
+			}
+			if (box.qtZMax() + borderSize_ > midZ_) {
+				copy.sw_ = sw_.copyWithout(box);
+			}
+		}
+		if (box.qtXMax() + borderSize_ > midX_) {
+			if (box.qtZMin() - borderSize_ <= midZ_) {
+				copy.ne_ = ne_.copyWithout(box);
+			}
+			if (box.qtZMax() + borderSize_ > midZ_) {
+				copy.se_ = se_.copyWithout(box);
+			}
+		}
+		return copy;
+	}
+
 	public int size() {
 		return size_;
 	}
@@ -116,140 +251,336 @@ public class SparseQuadTree {
 	}
 
 	public Set<QTBox> find(int x, int y, boolean includeBorder) {
-		int border = 0;
-		if (includeBorder) {
-			border = borderSize_;
-		}
-		if (boxes_ != null) {
-			Set<QTBox> result = new TreeSet<>();
-			// These two loops are the same except for the second doesn't include the
-			// border adjustment for a little added performance.
-			if (includeBorder) {
-				for (QTBox box : boxes_) {
-					if (box.qtXMin() - border <= x && box.qtXMax() + border >= x && box.qtZMin() - border <= y
-							&& box.qtZMax() + border >= y) {
-						result.add(box);
+		Set<QTBox> result = new TreeSet<>();
+		find(x, y, includeBorder, result);
+		return result;
+	}
+
+	/**
+	 * Collects all boxes containing the given point into a caller supplied
+	 * collection instead of allocating a new set for every lookup. The collection
+	 * is not cleared before use, so callers reusing one across lookups have to
+	 * clear it themselves.
+	 *
+	 * @param x             X coordinate to look up
+	 * @param y             Z coordinate to look up
+	 * @param includeBorder Whether the border of this tree should be considered
+	 * @param result        Collection to add all matching boxes to
+	 * @return The same collection that was passed in
+	 */
+	public <T extends Collection<? super QTBox>> T find(int x, int y, boolean includeBorder, T result) {
+		forEachAt(x, y, includeBorder, result::add);
+		return result;
+	}
+
+	public void forEachAt(int x, int y, Consumer<? super QTBox> consumer) {
+		forEachAt(x, y, false, consumer);
+	}
+
+	/**
+	 * Passes every box containing the given point to the given consumer. Unlike
+	 * {@link #find(int, int, boolean)} this does not allocate anything, which
+	 * makes it the preferred way to query the tree from hot paths like block
+	 * events.
+	 *
+	 * @param x             X coordinate to look up
+	 * @param y             Z coordinate to look up
+	 * @param includeBorder Whether the border of this tree should be considered
+	 * @param consumer      Consumer called once for every matching box
+	 */
+	public void forEachAt(int x, int y, boolean includeBorder, Consumer<? super QTBox> consumer) {
+		SparseQuadTree node = this;
+		while (node.leaf_ == null) {
+			if (x <= node.midX_) {
+				node = y <= node.midZ_ ? node.nw_ : node.sw_;
+			} else {
+				node = y <= node.midZ_ ? node.ne_ : node.se_;
+			}
+		}
+		node.leaf_.forEachAt(x, y, includeBorder ? borderSize_ : 0, consumer);
+	}
+
+	public Set<QTBox> findOverlapping(int xMin, int zMin, int xMax, int zMax) {
+		return findOverlapping(xMin, zMin, xMax, zMax, false);
+	}
+
+	public Set<QTBox> findOverlapping(int xMin, int zMin, int xMax, int zMax, boolean includeBorder) {
+		Set<QTBox> result = new TreeSet<>();
+		forEachOverlapping(xMin, zMin, xMax, zMax, includeBorder, result::add);
+		return result;
+	}
+
+	/**
+	 * Passes every box overlapping the given rectangle (bounds inclusive) to the
+	 * given consumer exactly once. Quadrants not intersecting the rectangle are
+	 * skipped entirely. Boxes stored in several quadrants are only reported by
+	 * the quadrant containing the lower corner of their intersection with the
+	 * rectangle, so no set is needed for deduplication.
+	 *
+	 * @param xMin          Lower X bound of the rectangle
+	 * @param zMin          Lower Z bound of the rectangle
+	 * @param xMax          Upper X bound of the rectangle
+	 * @param zMax          Upper Z bound of the rectangle
+	 * @param includeBorder Whether the border of this tree should be considered
+	 * @param consumer      Consumer called once for every matching box
+	 */
+	public void forEachOverlapping(int xMin, int zMin, int xMax, int zMax, boolean includeBorder,
+			Consumer<? super QTBox> consumer) {
+		if (xMin > xMax || zMin > zMax) {
+			throw new IllegalArgumentException("xMin > xMax || zMin > zMax");
+		}
+		forEachOverlapping(xMin, zMin, xMax, zMax, includeBorder ? borderSize_ : 0, Long.MIN_VALUE, Long.MAX_VALUE,
+				Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+	}
+
+	// The node covers the area lowX < x <= highX, lowZ < z <= highZ
+	private void forEachOverlapping(int xMin, int zMin, int xMax, int zMax, int border, long lowX, long highX,
+			long lowZ, long highZ, Consumer<? super QTBox> consumer) {
+		if (leaf_ != null) {
+			leaf_.forEachOverlapping(xMin, zMin, xMax, zMax, border, lowX, highX, lowZ, highZ, consumer);
+			return;
+		}
+		// The medians may lie outside of the area of this node, as boxes are copied
+		// into every quadrant they overlap. Clamp them, otherwise a box could be
+		// reported by several leaves
+		long lowMidX = Math.min(midX_, highX);
+		long highMidX = Math.max(midX_, lowX);
+		long lowMidZ = Math.min(midZ_, highZ);
+		long highMidZ = Math.max(midZ_, lowZ);
+		if (xMin <= midX_) {
+			if (zMin <= midZ_) {
+				nw_.forEachOverlapping(xMin, zMin, xMax, zMax, border, lowX, lowMidX, lowZ, lowMidZ, consumer);
+			}
+			if (zMax > midZ_) {
+				sw_.forEachOverlapping(xMin, zMin, xMax, zMax, border, lowX, lowMidX, highMidZ, highZ, consumer);
+			}
+		}
+		if (xMax > midX_) {
+			if (zMin <= midZ_) {
+				ne_.forEachOverlapping(xMin, zMin, xMax, zMax, border, highMidX, highX, lowZ, lowMidZ, consumer);
+			}
+			if (zMax > midZ_) {
+				se_.forEachOverlapping(xMin, zMin, xMax, zMax, border, highMidX, highX, highMidZ, highZ, consumer);
+			}
+		}
+	}
+
+	/**
+	 * Finds the box closest to the given point, measured as euclidean distance
+	 * to the closest point of the box. Boxes containing the point have distance
+	 * 0. The border of this tree is not considered.
+	 *
+	 * @param x X coordinate of the point
+	 * @param y Z coordinate of the point
+	 * @return Closest box or null if the tree is empty
+	 */
+	public QTBox nearest(int x, int y) {
+		List<QTBox> result = kNearest(x, y, 1, Double.POSITIVE_INFINITY);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Finds up to k boxes closest to the given point which are at most the given
+	 * distance away, sorted by ascending distance. Quadrants are visited best
+	 * first, ordered by their distance to the point, so only quadrants which may
+	 * contain one of the results are ever looked at.
+	 *
+	 * @param x           X coordinate of the point
+	 * @param y           Z coordinate of the point
+	 * @param k           Maximum amount of boxes to return
+	 * @param maxDistance Maximum distance of returned boxes to the point
+	 * @return Closest boxes, closest first
+	 */
+	public List<QTBox> kNearest(int x, int y, int k, double maxDistance) {
+		if (k < 0 || maxDistance < 0) {
+			throw new IllegalArgumentException("k < 0 || maxDistance < 0");
+		}
+		List<QTBox> result = new ArrayList<>(Math.min(k, size_));
+		if (k == 0) {
+			return result;
+		}
+		double maxDistanceSquared = maxDistance * maxDistance;
+		Set<QTBox> found = Collections.newSetFromMap(new IdentityHashMap<>());
+		PriorityQueue<NearestCandidate> queue = new PriorityQueue<>();
+		queue.add(new NearestCandidate(0, this, null, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE,
+				Long.MAX_VALUE));
+		while (!queue.isEmpty()) {
+			NearestCandidate candidate = queue.poll();
+			if (candidate.box != null) {
+				if (found.add(candidate.box)) {
+					result.add(candidate.box);
+					if (result.size() >= k) {
+						break;
 					}
 				}
-			} else {
-				for (QTBox box : boxes_) {
-					if (box.qtXMin() <= x && box.qtXMax() >= x && box.qtZMin() <= y && box.qtZMax() >= y) {
-						result.add(box);
+				continue;
+			}
+			SparseQuadTree node = candidate.node;
+			if (node.leaf_ != null) {
+				QTLeaf leaf = node.leaf_;
+				for (int i = 0; i < leaf.size(); i++) {
+					double distance = leaf.distanceSquared(i, x, y);
+					if (distance <= maxDistanceSquared && !found.contains(leaf.get(i))) {
+						queue.add(new NearestCandidate(distance, null, leaf.get(i), 0, 0, 0, 0));
 					}
 				}
+				continue;
 			}
-			return result;
+			// Clamped to the area of the node like in forEachOverlapping()
+			long lowMidX = Math.min(node.midX_, candidate.highX);
+			long highMidX = Math.max(node.midX_, candidate.lowX);
+			long lowMidZ = Math.min(node.midZ_, candidate.highZ);
+			long highMidZ = Math.max(node.midZ_, candidate.lowZ);
+			offerNode(queue, node.nw_, x, y, maxDistanceSquared, candidate.lowX, lowMidX, candidate.lowZ, lowMidZ);
+			offerNode(queue, node.sw_, x, y, maxDistanceSquared, candidate.lowX, lowMidX, highMidZ, candidate.highZ);
+			offerNode(queue, node.ne_, x, y, maxDistanceSquared, highMidX, candidate.highX, candidate.lowZ, lowMidZ);
+			offerNode(queue, node.se_, x, y, maxDistanceSquared, highMidX, candidate.highX, highMidZ,
+					candidate.highZ);
 		}
-		if (x <= midX_) {
-			if (y <= midZ_) {
-				return nw_.find(x, y, includeBorder);
-			} else {
-				return sw_.find(x, y, includeBorder);
-			}
+		return result;
+	}
+
+	// The node covers the area lowX < x <= highX, lowZ < z <= highZ
+	private static void offerNode(PriorityQueue<NearestCandidate> queue, SparseQuadTree node, int x, int y,
+			double maxDistanceSquared, long lowX, long highX, long lowZ, long highZ) {
+		if (node.size_ == 0) {
+			return;
+		}
+		double dx = QTLeaf.axisDistance(x, lowX + 1, highX);
+		double dz = QTLeaf.axisDistance(y, lowZ + 1, highZ);
+		double distance = dx * dx + dz * dz;
+		if (distance <= maxDistanceSquared) {
+			queue.add(new NearestCandidate(distance, node, null, lowX, highX, lowZ, highZ));
+		}
+	}
+
+	private static class NearestCandidate implements Comparable<NearestCandidate> {
+
+		private final double distanceSquared;
+		private final SparseQuadTree node;
+		private final QTBox box;
+		private final long lowX;
+		private final long highX;
+		private final long lowZ;
+		private final long highZ;
+
+		private NearestCandidate(double distanceSquared, SparseQuadTree node, QTBox box, long lowX, long highX,
+				long lowZ, long highZ) {
+			this.distanceSquared = distanceSquared;
+			this.node = node;
+			this.box = box;
+			this.lowX = lowX;
+			this.highX = highX;
+			this.lowZ = lowZ;
+			this.highZ = highZ;
 		}
-		if (y <= midZ_) {
-			return ne_.find(x, y, includeBorder);
+
+		@Override
+		public int compareTo(NearestCandidate other) {
+			return Double.compare(distanceSquared, other.distanceSquared);
 		}
-		return se_.find(x, y, includeBorder);
+
 	}
 
 	protected void split() {
-		if (boxes_ == null || boxes_.size() <= maxNodeSize_) {
+		split(false);
+	}
+
+	private void split(boolean bulk) {
+		if (leaf_ == null || leaf_.size() <= maxNodeSize_) {
 			return;
 		}
+		QTLeaf leaf = leaf_;
+		int boxCount = leaf.size();
 		nw_ = new SparseQuadTree(borderSize_, Quadrant.NW);
 		ne_ = new SparseQuadTree(borderSize_, Quadrant.NE);
 		sw_ = new SparseQuadTree(borderSize_, Quadrant.SW);
 		se_ = new SparseQuadTree(borderSize_, Quadrant.SE);
-		SortedSet<Integer> xAxis = new TreeSet<>();
-		SortedSet<Integer> yAxis = new TreeSet<>();
-		for (QTBox box : boxes_) {
-			int x;
-			int y;
+		int[] xAxis = new int[boxCount];
+		int[] yAxis = new int[boxCount];
+		for (int i = 0; i < boxCount; i++) {
 			switch (quadrant_) {
 				case NW:
-					x = box.qtXMin();
-					y = box.qtZMin();
+					xAxis[i] = leaf.xMin(i);
+					yAxis[i] = leaf.zMin(i);
 					break;
 				case NE:
-					x = box.qtXMax();
-					y = box.qtZMin();
+					xAxis[i] = leaf.xMax(i);
+					yAxis[i] = leaf.zMin(i);
 					break;
 				case SW:
-					x = box.qtXMin();
-					y = box.qtZMax();
+					xAxis[i] = leaf.xMin(i);
+					yAxis[i] = leaf.zMax(i);
 					break;
 				case SE:
-					x = box.qtXMax();
-					y = box.qtZMax();
+					xAxis[i] = leaf.xMax(i);
+					yAxis[i] = leaf.zMax(i);
 					break;
 				default:
-					x = box.qtXMid();
-					y = box.qtZMid();
+					xAxis[i] = leaf.get(i).qtXMid();
+					yAxis[i] = leaf.get(i).qtZMid();
 					break;
 			}
-			xAxis.add(x);
-			yAxis.add(y);
 		}
-		int counter = 0;
-		int ender = (xAxis.size() / 2) - 1;
-		for (Integer i : xAxis) {
-			if (counter >= ender) {
-				midX_ = i;
-				break;
-			}
-			++counter;
-		}
-		counter = 0;
-		ender = (yAxis.size() / 2) - 1;
-		for (Integer i : yAxis) {
-			if (counter >= ender) {
-				midZ_ = i;
-				break;
-			}
-			++counter;
-		}
-		for (QTBox box : boxes_) {
-			if (box.qtXMin() - borderSize_ <= midX_) {
-				if (box.qtZMin() - borderSize_ <= midZ_) {
-					nw_.add(box, true);
+		midX_ = lowerMedianOfDistinct(xAxis);
+		midZ_ = lowerMedianOfDistinct(yAxis);
+		// Boxes are passed on in their order, so the children's leaves stay sorted
+		// without searching them
+		for (int i = 0; i < boxCount; i++) {
+			if (leaf.xMin(i) - borderSize_ <= midX_) {
+				if (leaf.zMin(i) - borderSize_ <= midZ_) {
+					nw_.appendToLeaf(leaf, i);
 				}
-				if (box.qtZMax() + borderSize_ > midZ_) {
-					sw_.add(box, true);
+				if (leaf.zMax(i) + borderSize_ > midZ_) {
+					sw_.appendToLeaf(leaf, i);
 				}
 			}
-			if (box.qtXMax() + borderSize_ > midX_) {
-				if (box.qtZMin() - borderSize_ <= midZ_) {
-					ne_.add(box, true);
+			if (leaf.xMax(i) + borderSize_ > midX_) {
+				if (leaf.zMin(i) - borderSize_ <= midZ_) {
+					ne_.appendToLeaf(leaf, i);
 				}
-				if (box.qtZMax() + borderSize_ > midZ_) {
-					se_.add(box, true);
+				if (leaf.zMax(i) + borderSize_ > midZ_) {
+					se_.appendToLeaf(leaf, i);
 				}
 			}
 		}
-		if (nw_.size() == boxes_.size() || sw_.size() == boxes_.size() || ne_.size() == boxes_.size()
-				|| se_.size() == boxes_.size()) {
+		if (nw_.size() == boxCount || sw_.size() == boxCount || ne_.size() == boxCount || se_.size() == boxCount) {
 			// Splitting failed as we split into an identically sized quadrent. Update
 			// this nodes max size for next time and throw away the work we did.
-			maxNodeSize_ = boxes_.size() * 2;
+			maxNodeSize_ = boxCount * 2;
+			nw_ = null;
+			ne_ = null;
+			sw_ = null;
+			se_ = null;
 			return;
 		}
 		boolean sizeAdjusted = false;
-		if (nw_.size() >= maxNodeSize_) {
-			maxNodeSize_ = nw_.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (sw_.size() >= maxNodeSize_) {
-			maxNodeSize_ = sw_.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (ne_.size() >= maxNodeSize_) {
-			maxNodeSize_ = ne_.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (se_.size() >= maxNodeSize_) {
-			maxNodeSize_ = se_.size() * 2;
-			sizeAdjusted = true;
+		if (bulk) {
+			// Every child is split again right away, so children only get a larger
+			// max size if the split copied most boxes into several quadrants. Those
+			// boxes overlap the split point and would be copied again on every level.
+			int childBoxes = nw_.size() + sw_.size() + ne_.size() + se_.size();
+			if (childBoxes > boxCount * 2) {
+				maxNodeSize_ = Math.max(Math.max(nw_.size(), sw_.size()), Math.max(ne_.size(), se_.size())) * 2;
+				sizeAdjusted = true;
+			}
+		} else {
+			if (nw_.size() >= maxNodeSize_) {
+				maxNodeSize_ = nw_.size() * 2;
+				sizeAdjusted = true;
+			}
+			if (sw_.size() >= maxNodeSize_) {
+				maxNodeSize_ = sw_.size() * 2;
+				sizeAdjusted = true;
+			}
+			if (ne_.size() >= maxNodeSize_) {
+				maxNodeSize_ = ne_.size() * 2;
+				sizeAdjusted = true;
+			}
+			if (se_.size() >= maxNodeSize_) {
+				maxNodeSize_ = se_.size() * 2;
+				sizeAdjusted = true;
+			}
 		}
 		if (sizeAdjusted) {
 			nw_.setMaxNodeSize(maxNodeSize_);
@@ -257,7 +588,74 @@ public class SparseQuadTree {
 			ne_.setMaxNodeSize(maxNodeSize_);
 			se_.setMaxNodeSize(maxNodeSize_);
 		}
-		boxes_ = null;
+		leaf_ = null;
+	}
+
+	private void appendToLeaf(QTLeaf leaf, int index) {
+		++size_;
+		leaf_.append(leaf, index);
+	}
+
+	/**
+	 * Recursively splits this node and all resulting children until every leaf
+	 * is within {@link #MAX_NODE_SIZE} or can not be split any further. Used when
+	 * loading many boxes at once, so splitting is done once per node instead of
+	 * once per added box.
+	 */
+	protected void splitFully() {
+		split(true);
+		if (leaf_ != null) {
+			return;
+		}
+		nw_.splitFully();
+		sw_.splitFully();
+		ne_.splitFully();
+		se_.splitFully();
+	}
+
+	// Picks the same value as walking a sorted set of the distinct values up to
+	// (distinct count / 2) - 1, without boxing every coordinate. Sorts the given
+	// array in place. Shared with SparseOctree.
+	static int lowerMedianOfDistinct(int[] values) {
+		Arrays.sort(values);
+		int distinct = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (i == 0 || values[i] != values[i - 1]) {
+				++distinct;
+			}
+		}
+		int ender = Math.max((distinct / 2) - 1, 0);
+		int counter = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (i == 0 || values[i] != values[i - 1]) {
+				if (counter >= ender) {
+					return values[i];
+				}
+				++counter;
+			}
+		}
+		return values[values.length - 1];
+	}
+
+	/**
+	 * @return Amount of nodes in this tree including this one, mostly useful to
+	 *         compare the shape of differently built trees
+	 */
+	public int getNodeCount() {
+		if (leaf_ != null) {
+			return 1;
+		}
+		return 1 + nw_.getNodeCount() + sw_.getNodeCount() + ne_.getNodeCount() + se_.getNodeCount();
+	}
+
+	/**
+	 * @return Amount of levels in this tree, a single leaf has a depth of 1
+	 */
+	public int getDepth() {
+		if (leaf_ != null) {
+			return 1;
+		}
+		return 1 + Math.max(Math.max(nw_.getDepth(), sw_.getDepth()), Math.max(ne_.getDepth(), se_.getDepth()));
 	}
 
 	public int getBorderSize() {
@@ -272,10 +670,10 @@ public class SparseQuadTree {
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(quadrant_);
-		if (boxes_ != null) {
+		if (leaf_ != null) {
 			sb.append('[');
-			for (QTBox box : boxes_) {
-				sb.append(boxCoord(box));
+			for (int i = 0; i < leaf_.size(); i++) {
+				sb.append(boxCoord(leaf_.get(i)));
 			}
 			sb.append(']');
 			return sb.toString();
@@ -308,7 +706,8 @@ public class SparseQuadTree {
 
 	protected int maxNodeSize_ = MAX_NODE_SIZE;
 
-	protected Set<QTBox> boxes_;
+	// Boxes of this node, only present while it is a leaf
+	private QTLeaf leaf_;
 
 	protected SparseQuadTree nw_;
 